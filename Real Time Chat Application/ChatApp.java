@@ -1,36 +1,181 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import java.util.logging.*;
 public class ChatApp {
+    /** Wire encodings a Communicator can ask for. */
+    public enum WireFormat {
+        TEXT {
+            @Override
+            String render(Message m) { return m.toString(); }
+        },
+        JSON {
+            @Override
+            String render(Message m) {
+                StringBuilder sb = new StringBuilder(64 + m.getText().length());
+                sb.append("{\"seq\":").append(m.getSequence())
+                  .append(",\"from\":").append(jsonString(m.getFrom()))
+                  .append(",\"room\":").append(jsonString(m.getToRoom()))
+                  .append(",\"to\":").append(jsonString(m.getToUser()))
+                  .append(",\"text\":").append(jsonString(m.getText()))
+                  .append(",\"time\":\"").append(m.getTimestamp()).append("\"}");
+                return sb.toString();
+            }
+        };
+
+        abstract String render(Message m);
+
+        static String jsonString(String s) {
+            if (s == null) return "null";
+            StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"': sb.append("\\\""); break;
+                    case '\\': sb.append("\\\\"); break;
+                    case '\n': sb.append("\\n"); break;
+                    case '\r': sb.append("\\r"); break;
+                    case '\t': sb.append("\\t"); break;
+                    default:
+                        if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                        else sb.append(c);
+                }
+            }
+            return sb.append('"').toString();
+        }
+    }
+
+    /**
+     * Process-wide intern table for user and room names. Messages store the int id instead of
+     * a String reference, and every message from the same sender shares one String. Ids are
+     * never reused; the table grows with the number of distinct names, not messages.
+     */
+    public static final class Symbols {
+        public static final int NONE = -1;
+
+        private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+        private static volatile String[] names = new String[1024];
+        private static int size = 0; // guarded by Symbols.class
+
+        private Symbols() {}
+
+        public static int intern(String name) {
+            if (name == null) return NONE;
+            Integer id = ids.get(name);
+            if (id != null) return id;
+            synchronized (Symbols.class) {
+                id = ids.get(name);
+                if (id != null) return id;
+                String[] table = names;
+                if (size == table.length) {
+                    table = Arrays.copyOf(table, size * 2);
+                    names = table;
+                }
+                table[size] = name;
+                ids.put(name, size); // publishes the slot write to anyone who looks the name up
+                return size++;
+            }
+        }
+
+        // For names that come from outside (search input): NONE if the name was never interned,
+        // and nothing is added to the table
+        public static int lookup(String name) {
+            if (name == null) return NONE;
+            Integer id = ids.get(name);
+            return id == null ? NONE : id;
+        }
+
+        // Ids reach readers inside safely published messages, which also publishes the slot
+        public static String name(int id) {
+            return id == NONE ? null : names[id];
+        }
+
+        public static int size() {
+            synchronized (Symbols.class) { return size; }
+        }
+    }
+
+    /**
+     * One chat message. Kept deliberately small because rooms retain many of them: names are
+     * Symbols ids and the time is epoch millis; the String/LocalDateTime accessors are
+     * computed from those on demand.
+     */
     public static class Message {
-        private final String from;
-        private final String toRoom; // null if private message directly to user (toUser used)
-        private final String toUser; // if non-null then private message to user
+        private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+        private final int fromId;
+        private final int toRoomId; // NONE if private message directly to user (toUser used)
+        private final int toUserId; // if not NONE then private message to user
         private final String text;
-        private final LocalDateTime timestamp;
+        private final long epochMillis;
+        long sequence = -1; // per-room position, stamped when the room's history takes it
+        // Encoded once on first use and shared by every recipient of this message
+        private volatile ByteBuffer textEncoding;
+        private volatile ByteBuffer jsonEncoding;
 
         public Message(String from, String toRoom, String toUser, String text) {
-            this.from = from;
-            this.toRoom = toRoom;
-            this.toUser = toUser;
+            this(from, toRoom, toUser, text, System.currentTimeMillis());
+        }
+
+        // Rebuilds a stored message with its original timestamp
+        public Message(String from, String toRoom, String toUser, String text, LocalDateTime timestamp) {
+            this(from, toRoom, toUser, text, toEpochMillis(timestamp));
+        }
+
+        public Message(String from, String toRoom, String toUser, String text, long epochMillis) {
+            this.fromId = Symbols.intern(from);
+            this.toRoomId = Symbols.intern(toRoom);
+            this.toUserId = Symbols.intern(toUser);
             this.text = text;
-            this.timestamp = LocalDateTime.now();
+            this.epochMillis = epochMillis;
+        }
+
+        static long toEpochMillis(LocalDateTime t) {
+            return t.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
         }
 
-        public String getFrom() { return from; }
-        public String getToRoom() { return toRoom; }
-        public String getToUser() { return toUser; }
+        public String getFrom() { return Symbols.name(fromId); }
+        public String getToRoom() { return Symbols.name(toRoomId); }
+        public String getToUser() { return Symbols.name(toUserId); }
         public String getText() { return text; }
-        public LocalDateTime getTimestamp() { return timestamp; }
+        public LocalDateTime getTimestamp() {
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+        }
+        public long getEpochMillis() { return epochMillis; }
+        public int getFromId() { return fromId; }
+        public int getToRoomId() { return toRoomId; }
+        public int getToUserId() { return toUserId; }
+        public long getSequence() { return sequence; }
+
+        // Read-only UTF-8 payload; callers get their own position/limit over the shared bytes
+        public ByteBuffer encoded(WireFormat format) {
+            ByteBuffer b = format == WireFormat.JSON ? jsonEncoding : textEncoding;
+            if (b == null) {
+                // a racing encoder just produces an identical buffer; either one may win
+                b = ByteBuffer.wrap(format.render(this).getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+                if (format == WireFormat.JSON) jsonEncoding = b;
+                else textEncoding = b;
+            }
+            return b.duplicate();
+        }
 
         @Override
         public String toString() {
-            String time = timestamp.format(DateTimeFormatter.ofPattern("HH:mm:ss"));
-            if (toUser != null) {
-                return String.format("[%s] (private) %s -> %s: %s", time, from, toUser, text);
+            String time = getTimestamp().format(TIME_FORMAT);
+            if (toUserId != Symbols.NONE) {
+                return String.format("[%s] (private) %s -> %s: %s", time, getFrom(), getToUser(), text);
             } else {
-                return String.format("[%s] %s: %s", time, from, text);
+                return String.format("[%s] %s: %s", time, getFrom(), text);
             }
         }
     }
@@ -41,142 +186,945 @@ public class ChatApp {
         void onUserLeft(String username);
     }
 
+    /**
+     * Storage for a room's message history. Implementations must allow appends and reads
+     * to run concurrently without a room-wide lock.
+     */
+    public interface HistoryStore {
+        long append(Message message);             // stamps and returns the message's sequence
+        List<Message> snapshot();                 // everything retained, oldest first
+        List<Message> lastN(int n);
+        List<Message> since(LocalDateTime from);  // messages stamped at or after 'from'
+        List<Message> fromSequence(long seq);     // retained messages with sequence >= seq
+        long firstSequence();                     // oldest sequence still retained
+        long nextSequence();                      // sequence the next append will get
+        int size();
+        int capacity();
+        default void close() {}                   // release files or other resources, if any
+        default boolean isPersistent() { return false; } // true if reopening it restores the history
+        default long firstReadableSequence() { return firstSequence(); } // oldest sequence get() can return
+
+        // Makes the next append get 'seq', so a room handed over from another node keeps its
+        // numbering; false if this store cannot start there (it already holds messages, say)
+        default boolean continueFrom(long seq) { return seq == nextSequence(); }
+
+        // The message with this sequence, or null if it is not retained
+        default Message get(long seq) {
+            List<Message> from = fromSequence(seq);
+            return !from.isEmpty() && from.get(0).getSequence() == seq ? from.get(0) : null;
+        }
+    }
+
+    /**
+     * Bounded, lock-free history. Writers claim a sequence with a single atomic increment and
+     * stamp it on the message before storing it; nobody waits on anybody. Readers copy the
+     * retained window without blocking writers, skip slots that were already lapped, and stop
+     * at the first slot whose writer has not landed yet so a snapshot never has holes.
+     */
+    public static class RingHistoryStore implements HistoryStore {
+        private final int capacity;
+        private final int mask;
+        private long firstSeq; // moved only by continueFrom, before the store is shared
+        private final AtomicReferenceArray<Message> slots;
+        private final AtomicLong claimed;
+
+        public RingHistoryStore(int capacity) {
+            this(capacity, 0);
+        }
+
+        // firstSeq lets a store restored from disk continue the room's numbering
+        public RingHistoryStore(int capacity, long firstSeq) {
+            if (capacity <= 0 || capacity > (1 << 30)) throw new IllegalArgumentException("0 < capacity <= 2^30");
+            if (firstSeq < 0) throw new IllegalArgumentException("firstSeq >= 0");
+            int size = 1;
+            while (size < capacity) size <<= 1;
+            this.capacity = capacity;
+            this.mask = size - 1;
+            this.firstSeq = firstSeq;
+            this.slots = new AtomicReferenceArray<>(size);
+            this.claimed = new AtomicLong(firstSeq);
+        }
+
+        @Override
+        public long append(Message message) {
+            long seq = claimed.getAndIncrement();
+            message.sequence = seq; // published by the volatile slot write below
+            slots.set((int) (seq & mask), message);
+            return seq;
+        }
+
+        @Override
+        public List<Message> snapshot() { return copyFrom(firstSeq); }
+
+        @Override
+        public List<Message> lastN(int n) {
+            if (n <= 0) return Collections.emptyList();
+            return copyFrom(claimed.get() - n);
+        }
+
+        @Override
+        public List<Message> since(LocalDateTime from) {
+            long fromMillis = Message.toEpochMillis(from);
+            List<Message> all = snapshot();
+            int i = all.size();
+            while (i > 0 && all.get(i - 1).getEpochMillis() >= fromMillis) i--;
+            return all.subList(i, all.size());
+        }
+
+        @Override
+        public List<Message> fromSequence(long seq) { return copyFrom(seq); }
+
+        @Override
+        public Message get(long seq) {
+            if (seq < firstSequence() || seq >= claimed.get()) return null;
+            Message m = slots.get((int) (seq & mask));
+            return m != null && m.sequence == seq ? m : null;
+        }
+
+        @Override
+        public long firstSequence() { return Math.max(firstSeq, claimed.get() - capacity); }
+
+        @Override
+        public long nextSequence() { return claimed.get(); }
+
+        @Override
+        public int size() { return (int) Math.min(claimed.get() - firstSeq, capacity); }
+
+        @Override
+        public int capacity() { return capacity; }
+
+        // Only while nothing has been appended
+        @Override
+        public boolean continueFrom(long seq) {
+            if (seq < 0 || claimed.get() != firstSeq) return seq == claimed.get();
+            firstSeq = seq;
+            claimed.set(seq);
+            return true;
+        }
+
+        private List<Message> copyFrom(long first) {
+            long hi = claimed.get();
+            long lo = Math.max(Math.max(first, hi - capacity), firstSeq);
+            if (lo >= hi) return Collections.emptyList();
+            Message[] copy = new Message[(int) (hi - lo)];
+            int n = 0;
+            for (long s = lo; s < hi; s++) {
+                Message m = slots.get((int) (s & mask));
+                if (m == null || m.sequence < s) break;   // writer for s still in flight
+                if (m.sequence > s) continue;             // lapped while we were copying
+                copy[n++] = m;
+            }
+            return new HistoryView(copy, n);
+        }
+    }
+
+    /** Read-only view over a history copy; no further copying on access. */
+    static final class HistoryView extends AbstractList<Message> implements RandomAccess {
+        private final Message[] items;
+        private final int size;
+
+        HistoryView(Message[] items, int size) {
+            this.items = items;
+            this.size = size;
+        }
+
+        @Override
+        public Message get(int index) {
+            Objects.checkIndex(index, size);
+            return items[index];
+        }
+
+        @Override
+        public int size() { return size; }
+    }
+
+    /**
+     * Delivery threads shared by every room. Work is keyed (by room id) onto a fixed set of
+     * single-threaded shards, so the thread count is bounded no matter how many rooms exist
+     * and everything submitted under one key and lane runs in submission order.
+     *
+     * Each shard keeps one queue per Lane and takes up to the lane's weight in tasks before
+     * moving on to the next (deficit round robin). A backlog of broadcast fan-out therefore
+     * delays a join notice or a DM by at most one round instead of by the whole backlog, and
+     * bulk traffic still gets its share however busy the other lanes are.
+     */
+    public static class DeliveryEngine {
+
+        /** Delivery traffic classes, most urgent first. */
+        public enum Lane {
+            SYSTEM(4),    // join/leave notices and other room announcements
+            PRIVATE(4),   // direct messages
+            BROADCAST(1); // room fan-out, history replay, mailbox drains of room traffic
+
+            final int weight; // tasks taken per round while the lane has work
+
+            Lane(int weight) { this.weight = weight; }
+        }
+
+        private final Shard[] shards;
+        private final ChatMetrics.LaneMetrics[] laneStats = new ChatMetrics.LaneMetrics[Lane.values().length];
+        private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chat-delivery-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        private final AtomicInteger pending = new AtomicInteger();
+        private final Logger logger = Logger.getLogger(DeliveryEngine.class.getName());
+
+        public DeliveryEngine(int shardCount, ChatMetrics metrics) {
+            if (shardCount <= 0) throw new IllegalArgumentException("shardCount > 0");
+            for (Lane lane : Lane.values()) laneStats[lane.ordinal()] = metrics.lane(lane.name());
+            shards = new Shard[shardCount];
+            for (int i = 0; i < shardCount; i++) shards[i] = new Shard("chat-delivery-" + i);
+        }
+
+        public int shardCount() { return shards.length; }
+
+        // Tasks queued or running, including timer hand-offs; 0 means every delivery is done
+        public int pendingTasks() { return pending.get(); }
+
+        public Executor executorFor(String key) { return executorFor(key, Lane.BROADCAST); }
+
+        public Executor executorFor(String key, Lane lane) {
+            Shard shard = shards[Math.floorMod(key.hashCode(), shards.length)];
+            ChatMetrics.LaneMetrics stats = laneStats[lane.ordinal()];
+            return task -> {
+                pending.incrementAndGet();
+                long queuedAt = System.nanoTime();
+                stats.queued();
+                try {
+                    shard.submit(lane, () -> {
+                        stats.started(System.nanoTime() - queuedAt);
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            logger.log(Level.WARNING, "Delivery task failed for " + key, e);
+                        } finally {
+                            pending.decrementAndGet();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    stats.started(0);
+                    pending.decrementAndGet();
+                    throw e;
+                }
+            };
+        }
+
+        // Hands 'task' to 'target' after a delay; the timer thread never runs delivery work itself
+        public void executeLater(Executor target, Runnable task, long delayMillis) {
+            pending.incrementAndGet();
+            timer.schedule(() -> {
+                try {
+                    target.execute(task);
+                } finally {
+                    pending.decrementAndGet();
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        // Waits for queued deliveries (and whatever they enqueue in turn) to drain, then stops
+        public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (pending.get() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            timer.shutdown();
+            for (Shard shard : shards) shard.stop();
+            for (Shard shard : shards) {
+                shard.thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            }
+        }
+
+        /** One delivery thread and its per-lane FIFO queues. */
+        private static final class Shard implements Runnable {
+            private final List<Queue<Runnable>> lanes; // indexed by Lane.ordinal()
+            private final Semaphore ready = new Semaphore(0); // one permit per queued task, plus one to stop
+            private final Thread thread;
+            private volatile boolean stopping;
+            private int current;  // lane being served; worker thread only
+            private int credit;   // tasks it may still take this round
+
+            Shard(String name) {
+                List<Queue<Runnable>> queues = new ArrayList<>(Lane.values().length);
+                for (int i = 0; i < Lane.values().length; i++) queues.add(new ConcurrentLinkedQueue<>());
+                lanes = Collections.unmodifiableList(queues);
+                credit = Lane.values()[0].weight;
+                thread = new Thread(this, name);
+                thread.setDaemon(true);
+                thread.start();
+            }
+
+            void submit(Lane lane, Runnable task) {
+                if (stopping) throw new RejectedExecutionException("Delivery engine is shut down");
+                lanes.get(lane.ordinal()).add(task);
+                ready.release();
+            }
+
+            // Tasks already queued still run; the extra permit wakes the thread once they are done
+            void stop() {
+                stopping = true;
+                ready.release();
+            }
+
+            @Override
+            public void run() {
+                while (true) {
+                    ready.acquireUninterruptibly();
+                    Runnable task = next();
+                    if (task == null) return; // only the stop permit was left
+                    task.run();
+                }
+            }
+
+            private Runnable next() {
+                for (int visited = 0; visited <= lanes.size(); ) {
+                    if (credit > 0) {
+                        Runnable task = lanes.get(current).poll();
+                        if (task != null) {
+                            credit--;
+                            return task;
+                        }
+                    }
+                    current = (current + 1) % lanes.size();
+                    credit = Lane.values()[current].weight;
+                    visited++;
+                }
+                return null;
+            }
+        }
+    }
+
     public static class ChatRoom {
+        public static final int DEFAULT_HISTORY_CAPACITY = 1000;
+        public static final int DEFAULT_REPLAY_LIMIT = 50;
+        private static final int REPLAY_PAGE_SIZE = 100;
+        private static final int PRESENCE_NAMES_SHOWN = 3;
+        private static final int SYSTEM_SENDER = Symbols.intern("System");
+
         private final String roomId;
-        private final Map<String, User> users = new ConcurrentHashMap<>();
-        private final List<Message> history = Collections.synchronizedList(new ArrayList<>());
-        private final ExecutorService notifier = Executors.newCachedThreadPool();
+        // Copy-on-write membership: a post captures the recipients it was sent to in O(1)
+        private final Presence presence = new Presence();
+        // Joins (true) and leaves (false) not yet announced, in arrival order; guarded by itself
+        private final Map<String, Boolean> pendingPresence = new LinkedHashMap<>();
+        private boolean presenceFlushScheduled;
+        private final long presenceWindowMillis; // join/leave notices coalesce within this
+        private long lastPresenceNotice;
+        private final HistoryStore history;
+        private final ChatRoomManager manager;
+        private final Executor notifier;  // this room's shard of the shared delivery engine: posts and replay
+        private final Executor announcer; // same shard, system lane: presence and other notices
+        private final ChatMetrics.RoomMetrics stats;
+        private final TokenBucket postLimiter; // all posters together, before any fan-out work
+        private final SearchIndex index;
+        private volatile int replayLimit = DEFAULT_REPLAY_LIMIT;
+        private volatile boolean closed = false;
+        private volatile boolean parked = false; // closed by the sweeper; the manager can bring it back
+        private volatile long lastActivityMillis = System.currentTimeMillis(); // last join, leave or post
+        // Joiners whose history replay is still going out; live posts to them wait in it
+        private final Map<User, Replay> replays = new ConcurrentHashMap<>();
 
         public ChatRoom(String roomId) {
+            this(roomId, new RingHistoryStore(DEFAULT_HISTORY_CAPACITY), ChatRoomManager.getInstance());
+        }
+
+        public ChatRoom(String roomId, HistoryStore history, ChatRoomManager manager) {
             this.roomId = Objects.requireNonNull(roomId);
+            this.history = Objects.requireNonNull(history);
+            this.manager = Objects.requireNonNull(manager);
+            this.notifier = manager.getDeliveryEngine().executorFor(roomId, DeliveryEngine.Lane.BROADCAST);
+            this.announcer = manager.getDeliveryEngine().executorFor(roomId, DeliveryEngine.Lane.SYSTEM);
+            this.stats = manager.getMetrics().room(roomId);
+            this.postLimiter = new TokenBucket(manager.getRoomRateLimit());
+            this.presenceWindowMillis = manager.getPresenceWindowMillis();
+            this.lastPresenceNotice = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(presenceWindowMillis);
+            this.index = new SearchIndex(SearchIndex.DEFAULT_MAX_SEGMENTS, history::firstReadableSequence);
+            for (Message m : history.snapshot()) {
+                if (m.getFromId() != SYSTEM_SENDER) index.add(m);
+            }
         }
 
         public String getRoomId() { return roomId; }
 
+        public int getReplayLimit() { return replayLimit; }
+        public void setReplayLimit(int replayLimit) {
+            if (replayLimit < 0) throw new IllegalArgumentException("replayLimit >= 0");
+            this.replayLimit = replayLimit;
+        }
+
+        // Joins and replays the last replayLimit messages
         public void join(User user) {
             if (user == null) return;
-            users.put(user.getUsername(), user);
-            user.setCurrentRoom(this);
-            broadcastSystem(String.format("%s joined the room", user.getUsername()));
-            // Send history to user asynchronously
-            notifier.submit(() -> {
-                user.getCommunicator().sendSystem(String.format("Chat history for %s (last %d messages):", roomId, history.size()));
-                synchronized (history) {
-                    for (Message m : history) {
-                        user.onMessage(m);
-                    }
+            Replay r = enter(user);
+            if (r == null) {
+                ChatRoom live = successor();
+                if (live != null) live.join(user);
+                return;
+            }
+            List<Message> latest = history.lastN(replayLimit);
+            replay(r, latest, String.format("Chat history for %s (last %d messages):", roomId, latest.size()));
+        }
+
+        // Joins and replays only messages stamped at or after 'since'
+        public void join(User user, LocalDateTime since) {
+            if (user == null) return;
+            Replay r = enter(user);
+            if (r == null) {
+                ChatRoom live = successor();
+                if (live != null) live.join(user, since);
+                return;
+            }
+            List<Message> missed = history.since(Objects.requireNonNull(since));
+            replay(r, missed, String.format("Chat history for %s (last %d messages):", roomId, missed.size()));
+        }
+
+        // Reconnect path: sends only what the client has not seen. If part of that gap has
+        // already been evicted, falls back to the regular snapshot and says so.
+        public void join(User user, long lastSeenSeq) {
+            if (user == null) return;
+            Replay r = enter(user);
+            if (r == null) {
+                ChatRoom live = successor();
+                if (live != null) live.join(user, lastSeenSeq);
+                return;
+            }
+            long wanted = lastSeenSeq + 1;
+            if (wanted >= history.firstSequence()) {
+                List<Message> missed = history.fromSequence(wanted);
+                replay(r, missed, String.format("Resuming %s after #%d (%d missed messages):", roomId, lastSeenSeq, missed.size()));
+            } else {
+                List<Message> latest = history.lastN(replayLimit);
+                replay(r, latest, String.format("History after #%d is no longer available in %s; sending last %d messages:",
+                        lastSeenSeq, roomId, latest.size()));
+            }
+        }
+
+        // A caller still holding this room after the sweeper parked it is sent to the room the
+        // manager brings back; a room that was shut down or handed off has no successor
+        private ChatRoom successor() {
+            return parked ? manager.createOrGetRoom(roomId) : null;
+        }
+
+        // Null if the room has been shut down or parked in the meantime. The replay is registered
+        // before the user becomes a recipient, so every live post that reaches them waits for it.
+        private Replay enter(User user) {
+            Replay r = new Replay(user);
+            replays.put(user, r);
+            boolean added;
+            synchronized (presence) { // parking checks emptiness under the same lock
+                if (closed) {
+                    replays.remove(user, r);
+                    return null;
                 }
+                added = presence.add(user);
+            }
+            lastActivityMillis = System.currentTimeMillis();
+            user.joined(this);
+            manager.ensureConnected(user);
+            if (added) presenceChanged(user.getUsername(), true);
+            return r;
+        }
+
+        /**
+         * One joiner's history replay. Live posts addressed to the user while it is going out
+         * are held here and released after the last page, minus any the snapshot already had,
+         * so the user sees the history and then the live traffic, each message once.
+         * Touched only on the room's delivery shard.
+         */
+        private static final class Replay {
+            final User user;
+            final List<Message> held = new ArrayList<>();
+            final List<Long> heldPostedAt = new ArrayList<>(); // for the delivery-latency sample
+
+            Replay(User user) { this.user = user; }
+        }
+
+        // Replay works from a lock-free snapshot and goes out one page per task,
+        // so a long replay never holds anything a poster needs.
+        private void replay(Replay r, List<Message> messages, String header) {
+            notifier.execute(() -> {
+                r.user.getMailbox().offerSystem(header);
+                replayPage(r, messages, 0);
             });
         }
 
+        private void replayPage(Replay r, List<Message> messages, int from) {
+            int to = Math.min(from + REPLAY_PAGE_SIZE, messages.size());
+            for (int i = from; i < to; i++) {
+                r.user.getMailbox().offer(messages.get(i));
+            }
+            if (to < messages.size()) {
+                notifier.execute(() -> replayPage(r, messages, to));
+                return;
+            }
+            replays.remove(r.user, r);
+            long replayedUpTo = messages.isEmpty() ? -1 : messages.get(messages.size() - 1).getSequence();
+            for (int i = 0; i < r.held.size(); i++) {
+                Message m = r.held.get(i);
+                if (m.getSequence() > replayedUpTo) r.user.getMailbox().offer(m, stats.deliveryLatency, r.heldPostedAt.get(i));
+            }
+        }
+
         public void leave(User user) {
             if (user == null) return;
-            users.remove(user.getUsername());
-            user.setCurrentRoom(null);
-            broadcastSystem(String.format("%s left the room", user.getUsername()));
+            boolean removed = presence.remove(user);
+            lastActivityMillis = System.currentTimeMillis();
+            user.left(this);
+            if (removed) presenceChanged(user.getUsername(), false);
+        }
+
+        // A lone join or leave in a quiet room is announced at once. Anything that follows within
+        // the window is held and goes out as one notice when it closes, with a join and leave of
+        // the same name cancelling out, so a reconnect wave costs one broadcast, not one per user.
+        private void presenceChanged(String username, boolean joined) {
+            String notice = null;
+            synchronized (pendingPresence) {
+                Boolean earlier = pendingPresence.remove(username);
+                if (earlier == null || earlier == joined) pendingPresence.put(username, joined);
+                if (presenceFlushScheduled) return;
+                long now = System.nanoTime();
+                if (now - lastPresenceNotice >= TimeUnit.MILLISECONDS.toNanos(presenceWindowMillis)) {
+                    notice = describePresence();
+                    lastPresenceNotice = now;
+                } else {
+                    presenceFlushScheduled = true;
+                    manager.getDeliveryEngine().executeLater(announcer, this::flushPresence, presenceWindowMillis);
+                }
+            }
+            if (notice != null) broadcastSystem(notice);
+        }
+
+        private void flushPresence() {
+            String notice;
+            synchronized (pendingPresence) {
+                presenceFlushScheduled = false;
+                lastPresenceNotice = System.nanoTime();
+                notice = describePresence();
+            }
+            if (notice != null && !closed) broadcastSystem(notice);
+        }
+
+        // "alice joined the room", "alice, bob, carol and 7 others joined the room; dave left the room"
+        private String describePresence() {
+            List<String> joined = new ArrayList<>(), left = new ArrayList<>();
+            for (Map.Entry<String, Boolean> e : pendingPresence.entrySet()) (e.getValue() ? joined : left).add(e.getKey());
+            pendingPresence.clear();
+            if (joined.isEmpty() && left.isEmpty()) return null;
+            if (left.isEmpty()) return describeNames(joined) + " joined the room";
+            if (joined.isEmpty()) return describeNames(left) + " left the room";
+            return describeNames(joined) + " joined the room; " + describeNames(left) + " left the room";
+        }
+
+        private static String describeNames(List<String> names) {
+            if (names.size() == 1) return names.get(0);
+            if (names.size() <= PRESENCE_NAMES_SHOWN) {
+                return String.join(", ", names.subList(0, names.size() - 1)) + " and " + names.get(names.size() - 1);
+            }
+            int others = names.size() - PRESENCE_NAMES_SHOWN;
+            return String.join(", ", names.subList(0, PRESENCE_NAMES_SHOWN)) + " and " + others + (others == 1 ? " other" : " others");
         }
 
+        // Current members, for code that moves a room as a whole (ClusterNode handoff)
+        User[] getMembers() { return presence.snapshot().members(); }
+
+        // Sorted, read-only and unchanging; taking it costs nothing
         public Set<String> getActiveUsers() {
-            return new TreeSet<>(users.keySet());
+            return presence.snapshot().names();
         }
 
+        public int getActiveUserCount() { return presence.size(); }
+
+        public boolean isEmpty() { return presence.size() == 0; }
+
+        // Read-only snapshot view; safe to hold while the room keeps posting
         public List<Message> getHistory() {
-            synchronized (history) {
-                return new ArrayList<>(history);
-            }
+            return history.snapshot();
+        }
+
+        public HistoryStore getHistoryStore() { return history; }
+
+        // Takes a token from the room's bucket; a refusal is counted against the room
+        boolean tryAdmit() {
+            if (postLimiter.tryAcquire()) return true;
+            stats.rejected();
+            return false;
         }
 
+        void rejectedSender() { stats.rejected(); }
+
         public void postMessage(Message message) {
             if (message == null) return;
+            if (closed) {
+                ChatRoom live = successor();
+                if (live != null) live.postMessage(message);
+                return;
+            }
 
-            // If it's a private message to user inside this room, deliver only to target user (and sender).
+            // Private messages are routed by the manager's user directory, not by room membership
             if (message.getToUser() != null) {
-                User to = users.get(message.getToUser());
-                User fromUser = users.get(message.getFrom());
-                if (to != null) {
-                    // add to history (optional: mark private)
-                    synchronized (history) {
-                        history.add(message);
-                    }
-                    // deliver
-                    notifier.submit(() -> {
-                        if (fromUser != null) fromUser.onMessage(message);
-                        to.onMessage(message);
-                    });
-                } else {
-                    // target not found — notify sender
-                    if (fromUser != null) {
-                        fromUser.getCommunicator().sendSystem("User " + message.getToUser() + " not found in room " + roomId);
-                    }
-                }
+                manager.sendDirect(presence.snapshot().find(message.getFrom()), message);
                 return;
             }
 
-            // public room message: add to history and notify all users
-            synchronized (history) {
-                history.add(message);
-            }
-            for (User u : users.values()) {
-                notifier.submit(() -> u.onMessage(message));
-            }
+            // public room message: add to history and notify all users with a single task
+            history.append(message);
+            lastActivityMillis = message.getEpochMillis();
+            User[] recipients = presence.snapshot().members();
+            stats.posted(recipients.length);
+            stats.enqueued();
+            long postedAt = System.nanoTime();
+            notifier.execute(() -> {
+                stats.dequeued();
+                for (User u : recipients) {
+                    Replay r = replays.isEmpty() ? null : replays.get(u);
+                    if (r == null) {
+                        u.getMailbox().offer(message, stats.deliveryLatency, postedAt);
+                    } else {
+                        r.held.add(message);
+                        r.heldPostedAt.add(postedAt);
+                    }
+                }
+                index.add(message); // after fan-out, so indexing never delays delivery
+            });
+        }
+
+        // Searches what the room has posted (join/leave notices excluded), oldest match first.
+        // Hits come back as the stored messages; ones the history has since evicted are skipped.
+        public SearchIndex.Page search(SearchIndex.Query query) {
+            return index.search(Objects.requireNonNull(query), history::get);
         }
 
         private void broadcastSystem(String sysText) {
             Message systemMessage = new Message("System", roomId, null, sysText);
-            synchronized (history) { history.add(systemMessage); }
-            for (User u : users.values()) {
-                notifier.submit(() -> u.getCommunicator().sendSystem(sysText));
+            history.append(systemMessage);
+            User[] recipients = presence.snapshot().members();
+            stats.enqueued();
+            announcer.execute(() -> { // does not wait behind a backlog of posts
+                stats.dequeued();
+                for (User u : recipients) u.getMailbox().offerSystem(sysText);
+            });
+        }
+
+        public long getLastActivityMillis() { return lastActivityMillis; }
+
+        // Counts as activity for the idle sweeper
+        void touch() { lastActivityMillis = System.currentTimeMillis(); }
+
+        // Closes an empty room that has been quiet since before 'idleSince' and packs its history.
+        // Returns null, leaving the room untouched, if anyone is in it or it has seen activity.
+        ColdRoom park(long idleSince) {
+            synchronized (presence) {
+                if (closed || presence.size() > 0 || lastActivityMillis > idleSince) return null;
+                flushPresence();
+                closed = true;
+                parked = true;
             }
+            ColdRoom cold = ColdRoom.freeze(roomId, history);
+            history.close();
+            return cold;
         }
 
+        // Stops accepting joins and posts; deliveries already queued still go out.
+        // Threads belong to the manager's DeliveryEngine, so there is nothing to tear down.
         public void shutdown() {
-            notifier.shutdown();
+            flushPresence(); // announce whatever the presence window is still holding
+            closed = true;
+            history.close();
         }
     }
 
     public static class ChatRoomManager {
+        public static final TokenBucket.Limit DEFAULT_USER_RATE_LIMIT = new TokenBucket.Limit(10, 30);
+        public static final TokenBucket.Limit DEFAULT_ROOM_RATE_LIMIT = new TokenBucket.Limit(1000, 2000);
+        public static final long DEFAULT_IDLE_ROOM_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+        public static final long DEFAULT_PRESENCE_WINDOW_MILLIS = 250;
         private static volatile ChatRoomManager instance;
         private final Map<String, ChatRoom> rooms = new ConcurrentHashMap<>();
-        private ChatRoomManager() {}
+        private final Map<String, User> sessions = new ConcurrentHashMap<>(); // online users by name
+        private final ChatMetrics metrics = new ChatMetrics(ChatMetrics.DEFAULT_INTERVAL_MILLIS);
+        private final DeliveryEngine deliveryEngine = new DeliveryEngine(Runtime.getRuntime().availableProcessors(), metrics);
+        private volatile Function<String, HistoryStore> historyFactory =
+                id -> new RingHistoryStore(ChatRoom.DEFAULT_HISTORY_CAPACITY);
+        private volatile TokenBucket.Limit userRateLimit = DEFAULT_USER_RATE_LIMIT;
+        private volatile TokenBucket.Limit roomRateLimit = DEFAULT_ROOM_RATE_LIMIT;
+        private volatile long presenceWindowMillis = DEFAULT_PRESENCE_WINDOW_MILLIS;
+        // Rooms parked by the idle sweeper; createOrGetRoom brings them back
+        private final Map<String, ColdRoom> parked = new ConcurrentHashMap<>();
+        private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chat-room-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        private volatile long idleRoomTtlMillis;
+        private ScheduledFuture<?> sweep; // guarded by sweeper
+        private final Logger logger = Logger.getLogger(ChatRoomManager.class.getName());
+        // Standalone manager, e.g. one per ClusterNode; most code uses the process-wide getInstance()
+        public ChatRoomManager() {
+            setIdleRoomTtl(DEFAULT_IDLE_ROOM_TTL_MILLIS);
+        }
         public static ChatRoomManager getInstance() {
             if (instance == null) {
                 synchronized (ChatRoomManager.class) {
-                    if (instance == null) instance = new ChatRoomManager();
+                    if (instance == null) {
+                        ChatRoomManager m = new ChatRoomManager();
+                        m.metrics.registerMBean();
+                        instance = m;
+                    }
                 }
             }
             return instance;
         }
 
+        // Applies to rooms created after the call
+        public void setHistoryStoreFactory(Function<String, HistoryStore> historyFactory) {
+            this.historyFactory = Objects.requireNonNull(historyFactory);
+        }
+
+        // Posting limits; like the history factory they apply to users and rooms created after the call
+        public void setUserRateLimit(TokenBucket.Limit limit) { this.userRateLimit = Objects.requireNonNull(limit); }
+        public void setRoomRateLimit(TokenBucket.Limit limit) { this.roomRateLimit = Objects.requireNonNull(limit); }
+        public TokenBucket.Limit getUserRateLimit() { return userRateLimit; }
+        public TokenBucket.Limit getRoomRateLimit() { return roomRateLimit; }
+
+        // How long a room holds join/leave notices to announce them together; 0 announces each
+        // at once. Applies to rooms created after the call.
+        public void setPresenceWindow(long millis) {
+            if (millis < 0) throw new IllegalArgumentException("millis >= 0");
+            this.presenceWindowMillis = millis;
+        }
+        public long getPresenceWindowMillis() { return presenceWindowMillis; }
+
+        // Parked rooms come back here, with their history and numbering. Handing out a room
+        // counts as activity, so the sweeper does not park it before the caller gets to use it.
         public ChatRoom createOrGetRoom(String roomId) {
-            return rooms.computeIfAbsent(roomId, ChatRoom::new);
+            ChatRoom room = rooms.computeIfAbsent(roomId, id -> {
+                ColdRoom cold = parked.remove(id);
+                HistoryStore store = cold != null ? cold.thaw(historyFactory) : historyFactory.apply(id);
+                return new ChatRoom(id, store, this);
+            });
+            room.touch();
+            return room;
+        }
+
+        // Empty rooms with no activity for this long are parked; 0 turns the sweeper off
+        public void setIdleRoomTtl(long ttlMillis) {
+            if (ttlMillis < 0) throw new IllegalArgumentException("ttlMillis >= 0");
+            synchronized (sweeper) {
+                idleRoomTtlMillis = ttlMillis;
+                if (sweep != null) sweep.cancel(false);
+                sweep = null;
+                if (ttlMillis > 0) {
+                    long period = Math.max(1000, ttlMillis / 4);
+                    sweep = sweeper.scheduleWithFixedDelay(this::parkIdleRooms, period, period, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        public long getIdleRoomTtl() { return idleRoomTtlMillis; }
+
+        // One pass of the sweeper. Parking happens inside the map's compute, so it cannot
+        // interleave with createOrGetRoom for the same id.
+        public int parkIdleRooms() {
+            long ttl = idleRoomTtlMillis;
+            if (ttl <= 0) return 0;
+            long idleSince = System.currentTimeMillis() - ttl;
+            int count = 0;
+            for (ChatRoom r : rooms.values()) {
+                if (r.getLastActivityMillis() > idleSince || !r.isEmpty()) continue;
+                boolean[] done = new boolean[1];
+                rooms.computeIfPresent(r.getRoomId(), (id, room) -> {
+                    ColdRoom cold = room.park(idleSince);
+                    if (cold == null) return room;
+                    parked.put(id, cold);
+                    done[0] = true;
+                    return null;
+                });
+                if (done[0]) {
+                    metrics.removeRoom(r.getRoomId());
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        public int parkedRoomCount() { return parked.size(); }
+
+        Set<String> parkedRoomIds() { return Collections.unmodifiableSet(parked.keySet()); }
+
+        public DeliveryEngine getDeliveryEngine() { return deliveryEngine; }
+        public ChatMetrics getMetrics() { return metrics; }
+
+        // Makes the user reachable for direct messages; a newer session under the same name wins.
+        // Either way a mailbox closed by an overflow disconnect starts accepting again.
+        public void connect(User user) {
+            user.getMailbox().reopen();
+            sessions.put(user.getUsername(), user);
+        }
+
+        void ensureConnected(User user) {
+            user.getMailbox().reopen();
+            sessions.putIfAbsent(user.getUsername(), user);
+        }
+
+        // Leaves every room and removes the user from the directory
+        public void disconnect(User user) {
+            for (ChatRoom r : user.getRooms()) r.leave(user);
+            sessions.remove(user.getUsername(), user);
+        }
+
+        public User findUser(String username) {
+            return sessions.get(username);
+        }
+
+        public int onlineUserCount() {
+            return sessions.size();
+        }
+
+        // One directory lookup finds the target wherever it is; the sender gets an echo.
+        // 'from' may be null, in which case the sender is looked up by name.
+        public void sendDirect(User from, Message message) {
+            if (from == null) from = sessions.get(message.getFrom());
+            User to = sessions.get(message.getToUser());
+            if (to == null) {
+                if (from != null) from.getMailbox().offerSystem("User " + message.getToUser() + " is not online");
+                return;
+            }
+            to.getMailbox().offer(message, metrics.directLatency(), System.nanoTime());
+            if (from != null && from != to) from.getMailbox().offer(message);
         }
 
         public boolean roomExists(String roomId) {
-            return rooms.containsKey(roomId);
+            return rooms.containsKey(roomId) || parked.containsKey(roomId);
         }
 
         public Collection<ChatRoom> listRooms() {
             return Collections.unmodifiableCollection(rooms.values());
         }
 
+        // Recreates a room handed over from another node in a store from the history factory,
+        // keeping its sequence numbers. A persistent store that already has the start of the
+        // room (it lived here before) only gets what it is missing. Returns null if a room by
+        // that name already exists here.
+        ChatRoom adoptRoom(String roomId, List<Message> history, long nextSequence) {
+            if (rooms.containsKey(roomId)) return null;
+            long first = history.isEmpty() ? nextSequence : history.get(0).getSequence();
+            HistoryStore store = historyFactory.apply(roomId);
+            if (store.nextSequence() < first && !store.continueFrom(first)) {
+                logger.warning("History store for " + roomId + " cannot continue at #" + first + "; keeping it in memory");
+                store.close();
+                store = new RingHistoryStore(Math.max(ChatRoom.DEFAULT_HISTORY_CAPACITY, history.size()), first);
+            }
+            for (Message m : history) {
+                if (m.getSequence() >= store.nextSequence()) store.append(m);
+            }
+            parked.remove(roomId); // a copy parked before the room moved away is stale now
+            ChatRoom room = new ChatRoom(roomId, store, this);
+            if (rooms.putIfAbsent(roomId, room) == null) return room;
+            room.shutdown();
+            return null;
+        }
+
+        // Removes a room without telling its members; the caller has already moved them elsewhere
+        void dropRoom(String roomId) {
+            ChatRoom r = rooms.remove(roomId);
+            if (r != null) {
+                r.shutdown();
+                metrics.removeRoom(roomId);
+            }
+        }
+
         public void removeRoomIfEmpty(String roomId) {
             ChatRoom r = rooms.get(roomId);
-            if (r != null && r.getActiveUsers().isEmpty()) {
+            if (r != null && r.isEmpty()) {
                 r.shutdown();
                 rooms.remove(roomId);
+                metrics.removeRoom(roomId);
             }
         }
+
+        // Closes every room and drains pending deliveries
+        public void shutdown() throws InterruptedException {
+            for (ChatRoom r : rooms.values()) r.shutdown();
+            sweeper.shutdownNow();
+            deliveryEngine.shutdown(5, TimeUnit.SECONDS);
+            metrics.close();
+        }
     }
     public interface Communicator {
         void send(String payload);       // standard message format
         void sendSystem(String system);  // system messages or meta messages
         String protocolName();
+
+        default WireFormat wireFormat() { return WireFormat.TEXT; }
+
+        // Pre-encoded payload from Message.encoded(wireFormat()); shared, so never modify it
+        default void sendEncoded(ByteBuffer payload) {
+            send(StandardCharsets.UTF_8.decode(payload).toString());
+        }
+
+        // Several pending messages for one user, oldest first, to go out as one frame/response
+        default void sendBatch(List<ByteBuffer> payloads) {
+            for (ByteBuffer p : payloads) sendEncoded(p);
+        }
+
+        default BatchConfig batchConfig() { return BatchConfig.NONE; }
+    }
+
+    /** How long a mailbox waits to gather a burst, and how many messages go in one batch. */
+    public static final class BatchConfig {
+        public static final BatchConfig NONE = new BatchConfig(1, 0);
+
+        public final int maxMessages;
+        public final long lingerMillis;
+
+        public BatchConfig(int maxMessages, long lingerMillis) {
+            if (maxMessages <= 0) throw new IllegalArgumentException("maxMessages > 0");
+            if (lingerMillis < 0) throw new IllegalArgumentException("lingerMillis >= 0");
+            this.maxMessages = maxMessages;
+            this.lingerMillis = lingerMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "BatchConfig[max=" + maxMessages + ", linger=" + lingerMillis + "ms]";
+        }
+    }
+
+    // Console sink for the demo adapters: writes encoded payloads without decoding them
+    private static final WritableByteChannel CONSOLE = Channels.newChannel(System.out);
+
+    private static void writeConsole(byte[] prefix, ByteBuffer payload) {
+        writeConsole(prefix, Collections.singletonList(payload), "", "", "");
+    }
+
+    // One console write for a whole batch, the way one frame/response would go out
+    private static void writeConsole(byte[] prefix, List<ByteBuffer> payloads, String open, String separator, String close) {
+        synchronized (System.out) {
+            System.out.write(prefix, 0, prefix.length);
+            System.out.print(open);
+            try {
+                for (int i = 0; i < payloads.size(); i++) {
+                    if (i > 0) System.out.print(separator);
+                    CONSOLE.write(payloads.get(i));
+                }
+            } catch (IOException e) {
+                System.out.print("<write failed: " + e.getMessage() + ">");
+            }
+            System.out.println(close);
+        }
     }
 
     public static class WebSocketCommunicator implements Communicator {
+        // Frames are cheap, so keep the window short to protect interactive latency
+        private static final BatchConfig BATCHING = new BatchConfig(32, 2);
+
         private final String username;
+        private final byte[] prefix;
 
-        public WebSocketCommunicator(String username) { this.username = username; }
+        public WebSocketCommunicator(String username) {
+            this.username = username;
+            this.prefix = ("[WS -> " + username + "] ").getBytes(StandardCharsets.UTF_8);
+        }
 
         @Override
         public void send(String payload) {
@@ -189,14 +1137,35 @@ public class ChatApp {
             System.out.printf("[WS (SYSTEM) -> %s] %s%n", username, system);
         }
 
+        @Override
+        public void sendEncoded(ByteBuffer payload) {
+            writeConsole(prefix, payload);
+        }
+
+        // One text frame, newline-delimited
+        @Override
+        public void sendBatch(List<ByteBuffer> payloads) {
+            writeConsole(prefix, payloads, "", "\n    ", "");
+        }
+
+        @Override
+        public BatchConfig batchConfig() { return BATCHING; }
+
         @Override
         public String protocolName() { return "WebSocket"; }
     }
 
     public static class HttpCommunicator implements Communicator {
+        // Each response costs a round trip, so gather much more per response
+        private static final BatchConfig BATCHING = new BatchConfig(256, 25);
+
         private final String username;
+        private final byte[] prefix;
 
-        public HttpCommunicator(String username) { this.username = username; }
+        public HttpCommunicator(String username) {
+            this.username = username;
+            this.prefix = ("[HTTP -> " + username + "] ").getBytes(StandardCharsets.UTF_8);
+        }
 
         @Override
         public void send(String payload) {
@@ -209,24 +1178,302 @@ public class ChatApp {
             System.out.printf("[HTTP (SYSTEM) -> %s] %s%n", username, system);
         }
 
+        @Override
+        public void sendEncoded(ByteBuffer payload) {
+            writeConsole(prefix, payload);
+        }
+
+        // One long-poll response carrying a JSON array
+        @Override
+        public void sendBatch(List<ByteBuffer> payloads) {
+            writeConsole(prefix, payloads, "[", ",", "]");
+        }
+
+        @Override
+        public BatchConfig batchConfig() { return BATCHING; }
+
+        // Long-poll/SSE clients get JSON bodies
+        @Override
+        public WireFormat wireFormat() { return WireFormat.JSON; }
+
         @Override
         public String protocolName() { return "HTTP-Adapter"; }
     }
+    /** What a mailbox does when a message arrives and it is already full. */
+    public enum OverflowPolicy {
+        DROP_OLDEST,  // discard the oldest pending item to make room
+        DISCONNECT,   // treat the consumer as dead: clear the queue and remove the user
+        COALESCE      // fold everything pending into one "messages skipped" notice
+    }
+
+    /**
+     * Bounded outbound queue for one user. At most one drain runs at a time, and a slow
+     * communicator can only ever hold 'capacity' items instead of an unbounded pile of
+     * executor tasks.
+     *
+     * System notices and direct messages wait in their own queue, which every drain empties
+     * before touching room traffic, and their drains go out in the matching DeliveryEngine lane
+     * without linger. Within each queue the user receives items in the order they were enqueued.
+     */
+    public static class Mailbox {
+        public static final int DEFAULT_CAPACITY = 1024;
+        private static final int DRAIN_BUDGET = 64; // items per task before yielding the shard
+        private static final int NOT_SCHEDULED = Integer.MAX_VALUE;
+
+        private static final class Outbound {
+            final Message message; // null for system notices
+            final String system;
+            final DeliveryEngine.Lane lane;
+            final Histogram latency; // where to record time spent queued; null if untracked
+            final long enqueuedNanos;
+            Outbound(Message message, String system, DeliveryEngine.Lane lane, Histogram latency, long enqueuedNanos) {
+                this.message = message;
+                this.system = system;
+                this.lane = lane;
+                this.latency = latency;
+                this.enqueuedNanos = enqueuedNanos;
+            }
+        }
+
+        private final User owner;
+        private final int capacity;
+        private final OverflowPolicy policy;
+        private final DeliveryEngine engine;
+        private final Executor[] drainers; // one per lane, all on this user's shard
+        private final Histogram sendLatency;
+        private final Queue<Outbound> urgent = new ConcurrentLinkedQueue<>(); // system and private
+        private final Queue<Outbound> queue = new ConcurrentLinkedQueue<>();  // room traffic
+        private final AtomicInteger depth = new AtomicInteger();
+        private final AtomicInteger peakDepth = new AtomicInteger();
+        // Most urgent lane a drain has been submitted to since the last drain started
+        private final AtomicInteger scheduledLane = new AtomicInteger(NOT_SCHEDULED);
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final LongAdder delivered = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder coalesced = new LongAdder();
+        private volatile boolean closed = false;
+
+        Mailbox(User owner, int capacity, OverflowPolicy policy, DeliveryEngine engine, ChatMetrics metrics) {
+            if (capacity <= 0) throw new IllegalArgumentException("capacity > 0");
+            this.owner = owner;
+            this.capacity = capacity;
+            this.policy = Objects.requireNonNull(policy);
+            this.engine = Objects.requireNonNull(engine);
+            this.drainers = new Executor[DeliveryEngine.Lane.values().length];
+            for (DeliveryEngine.Lane lane : DeliveryEngine.Lane.values()) {
+                drainers[lane.ordinal()] = engine.executorFor("user:" + owner.getUsername(), lane);
+            }
+            this.sendLatency = metrics.protocol(owner.getCommunicator().protocolName());
+        }
+
+        public void offer(Message message) { enqueue(new Outbound(message, null, laneOf(message), null, 0)); }
+
+        // Live traffic: the time from 'postedAt' until the drain picks the message up goes to 'latency'
+        public void offer(Message message, Histogram latency, long postedAt) {
+            enqueue(new Outbound(message, null, laneOf(message), latency, postedAt));
+        }
+
+        public void offerSystem(String text) { enqueue(new Outbound(null, text, DeliveryEngine.Lane.SYSTEM, null, 0)); }
+
+        private static DeliveryEngine.Lane laneOf(Message message) {
+            return message.getToUser() != null ? DeliveryEngine.Lane.PRIVATE : DeliveryEngine.Lane.BROADCAST;
+        }
+
+        private void enqueue(Outbound item) {
+            if (closed) {
+                dropped.increment();
+                return;
+            }
+            if (depth.get() >= capacity && !handleOverflow()) {
+                dropped.increment();
+                return;
+            }
+            (item.lane == DeliveryEngine.Lane.BROADCAST ? queue : urgent).add(item);
+            peakDepth.accumulateAndGet(depth.incrementAndGet(), Math::max);
+            schedule(item.lane, true);
+        }
+
+        private Outbound poll() {
+            Outbound o = urgent.poll();
+            return o != null ? o : queue.poll();
+        }
+
+        // Returns false if the new item should be discarded
+        private boolean handleOverflow() {
+            switch (policy) {
+                case DROP_OLDEST: // room traffic goes first
+                    if (queue.poll() != null || urgent.poll() != null) {
+                        depth.decrementAndGet();
+                        dropped.increment();
+                    }
+                    return true;
+                case COALESCE:
+                    int skipped = 0;
+                    while (poll() != null) {
+                        depth.decrementAndGet();
+                        skipped++;
+                    }
+                    if (skipped > 0) {
+                        coalesced.add(skipped);
+                        queue.add(new Outbound(null, skipped + " messages skipped (slow connection)",
+                                DeliveryEngine.Lane.BROADCAST, null, 0));
+                        depth.incrementAndGet();
+                    }
+                    return true;
+                case DISCONNECT:
+                default:
+                    disconnect();
+                    return false;
+            }
+        }
+
+        // The notice still goes through the drain, so it cannot interleave with a batch being sent
+        private void disconnect() {
+            closed = true;
+            while (poll() != null) {
+                depth.decrementAndGet();
+                dropped.increment();
+            }
+            urgent.add(new Outbound(null, "Disconnected: outbound queue overflow", DeliveryEngine.Lane.SYSTEM, null, 0));
+            depth.incrementAndGet();
+            schedule(DeliveryEngine.Lane.SYSTEM, false);
+            owner.getManager().disconnect(owner);
+        }
+
+        // Makes sure a drain is on its way in a lane at least as urgent as 'lane'. An urgent item
+        // arriving while a room-traffic drain is still lingering sends a second drain ahead of it;
+        // whichever runs first does the work. A fresh room-traffic drain waits out the protocol's
+        // linger window so a burst leaves as one batch.
+        private void schedule(DeliveryEngine.Lane lane, boolean linger) {
+            int want = lane.ordinal();
+            int current;
+            do {
+                current = scheduledLane.get();
+                if (current <= want) return;
+            } while (!scheduledLane.compareAndSet(current, want));
+            Executor drainer = drainers[want];
+            long lingerMillis = linger && lane == DeliveryEngine.Lane.BROADCAST && current == NOT_SCHEDULED
+                    ? owner.getCommunicator().batchConfig().lingerMillis : 0;
+            if (lingerMillis > 0) engine.executeLater(drainer, this::drain, lingerMillis);
+            else drainer.execute(this::drain);
+        }
+
+        private void drain() {
+            if (!draining.compareAndSet(false, true)) return; // the running drain reschedules if needed
+            scheduledLane.set(NOT_SCHEDULED);
+            try {
+                Communicator communicator = owner.getCommunicator();
+                BatchConfig batching = communicator.batchConfig();
+                WireFormat format = communicator.wireFormat();
+                List<ByteBuffer> batch = new ArrayList<>();
+                Outbound o;
+                int budget = Math.max(DRAIN_BUDGET, batching.maxMessages);
+                while (budget-- > 0 && (o = poll()) != null) {
+                    depth.decrementAndGet();
+                    if (o.latency != null) o.latency.record(System.nanoTime() - o.enqueuedNanos);
+                    if (o.message != null) {
+                        batch.add(o.message.encoded(format));
+                        if (batch.size() >= batching.maxMessages) batch = flush(communicator, batch);
+                    } else {
+                        // a notice goes out after whatever was polled before it
+                        batch = flush(communicator, batch);
+                        long start = System.nanoTime();
+                        communicator.sendSystem(o.system);
+                        sendLatency.record(System.nanoTime() - start);
+                    }
+                    delivered.increment();
+                }
+                flush(communicator, batch);
+            } finally {
+                draining.set(false);
+                scheduledLane.set(NOT_SCHEDULED); // a drain that bowed out above may have left its mark
+                Outbound next = urgent.peek();
+                if (next != null || !queue.isEmpty()) { // a closed mailbox only holds its disconnect notice
+                    schedule(next != null ? next.lane : DeliveryEngine.Lane.BROADCAST, false);
+                }
+            }
+        }
+
+        private List<ByteBuffer> flush(Communicator communicator, List<ByteBuffer> batch) {
+            if (batch.isEmpty()) return batch;
+            long start = System.nanoTime();
+            if (batch.size() == 1) communicator.sendEncoded(batch.get(0));
+            else communicator.sendBatch(batch);
+            sendLatency.record(System.nanoTime() - start);
+            return new ArrayList<>();
+        }
+
+        // Re-opens a mailbox closed by DISCONNECT; the manager calls it when the user connects again
+        public void reopen() { closed = false; }
+
+        public boolean isClosed() { return closed; }
+        public int getCapacity() { return capacity; }
+        public OverflowPolicy getPolicy() { return policy; }
+        public int getDepth() { return depth.get(); }
+        public int getPeakDepth() { return peakDepth.get(); }
+        public long getDeliveredCount() { return delivered.sum(); }
+        public long getDroppedCount() { return dropped.sum(); }
+        public long getCoalescedCount() { return coalesced.sum(); }
+
+        @Override
+        public String toString() {
+            return String.format("Mailbox[%s depth=%d/%d peak=%d delivered=%d dropped=%d coalesced=%d%s]",
+                    owner.getUsername(), getDepth(), capacity, getPeakDepth(),
+                    getDeliveredCount(), getDroppedCount(), getCoalescedCount(), closed ? " closed" : "");
+        }
+    }
+
     public static class User implements ChatListener {
         private final String username;
         private final Communicator communicator;
-        private volatile ChatRoom currentRoom;
+        private final Mailbox mailbox;
+        private final Set<ChatRoom> rooms = ConcurrentHashMap.newKeySet();
+        private volatile ChatRoom currentRoom; // where sendMessage(text) posts; last joined by default
+        private final ChatRoomManager manager;
+        private final TokenBucket sendLimiter;
+        private final AtomicBoolean throttled = new AtomicBoolean();
 
         // Local metadata/flags can be added 
         public User(String username, Communicator communicator) {
+            this(username, communicator, Mailbox.DEFAULT_CAPACITY, OverflowPolicy.DROP_OLDEST);
+        }
+
+        public User(String username, Communicator communicator, int mailboxCapacity, OverflowPolicy overflowPolicy) {
+            this(username, communicator, mailboxCapacity, overflowPolicy, ChatRoomManager.getInstance());
+        }
+
+        // For users of a standalone manager
+        public User(String username, Communicator communicator, int mailboxCapacity, OverflowPolicy overflowPolicy,
+                    ChatRoomManager manager) {
             this.username = Objects.requireNonNull(username);
             this.communicator = Objects.requireNonNull(communicator);
+            this.manager = Objects.requireNonNull(manager);
+            this.mailbox = new Mailbox(this, mailboxCapacity, overflowPolicy,
+                    manager.getDeliveryEngine(), manager.getMetrics());
+            this.sendLimiter = new TokenBucket(manager.getUserRateLimit());
         }
 
         public String getUsername() { return username; }
         public Communicator getCommunicator() { return communicator; }
+        public Mailbox getMailbox() { return mailbox; }
+        public ChatRoomManager getManager() { return manager; }
         public ChatRoom getCurrentRoom() { return currentRoom; }
         public void setCurrentRoom(ChatRoom room) { this.currentRoom = room; }
+        public Set<ChatRoom> getRooms() { return Collections.unmodifiableSet(rooms); }
+
+        // Membership bookkeeping, called by ChatRoom
+        void joined(ChatRoom room) {
+            rooms.add(room);
+            currentRoom = room;
+        }
+
+        void left(ChatRoom room) {
+            rooms.remove(room);
+            if (currentRoom == room) {
+                Iterator<ChatRoom> it = rooms.iterator();
+                currentRoom = it.hasNext() ? it.next() : null;
+            }
+        }
 
         // User sends a public message to the room
         public void sendMessage(String text) {
@@ -235,26 +1482,48 @@ public class ChatApp {
                 communicator.sendSystem("You are not in a room.");
                 return;
             }
-            Message m = new Message(username, r.getRoomId(), null, text);
-            r.postMessage(m);
+            sendMessage(r, text);
         }
 
-        // User sends a private message to another user in same room
-        public void sendPrivateMessage(String toUser, String text) {
-            ChatRoom r = currentRoom;
-            if (r == null) {
-                communicator.sendSystem("You are not in a room.");
+        // User sends a public message to one of the rooms they are in
+        public void sendMessage(ChatRoom room, String text) {
+            if (!rooms.contains(room)) {
+                communicator.sendSystem("You are not in room " + room.getRoomId() + ".");
                 return;
             }
-            Message m = new Message(this.username, r.getRoomId(), toUser, text);
-            r.postMessage(m);
+            if (!admit(room)) return;
+            room.postMessage(new Message(username, room.getRoomId(), null, text));
+        }
+
+        // User sends a private message to any online user, whichever rooms either of them is in
+        public void sendPrivateMessage(String toUser, String text) {
+            if (!admit(null)) return;
+            manager.sendDirect(this, new Message(this.username, null, toUser, text));
+        }
+
+        // Own bucket first, then the room's. The sender hears about it once per run of
+        // rejections, so a flood is not answered with a flood of notices.
+        private boolean admit(ChatRoom room) {
+            String reason;
+            if (!sendLimiter.tryAcquire()) {
+                reason = "You are sending messages too fast; message not sent.";
+                if (room != null) room.rejectedSender();
+                else manager.getMetrics().rejectedDirect();
+            } else if (room != null && !room.tryAdmit()) {
+                reason = "Room " + room.getRoomId() + " is busy; message not sent.";
+            } else {
+                throttled.set(false);
+                return true;
+            }
+            if (throttled.compareAndSet(false, true)) mailbox.offerSystem(reason); // never on the caller's thread
+            return false;
         }
 
         // Observer callbacks
         @Override
         public void onMessage(Message message) {
-            // Format and send via communicator; could be JSON in real app
-            communicator.send(message.toString());
+            // Encoded once per message and wire format, shared across all recipients
+            communicator.sendEncoded(message.encoded(communicator.wireFormat()));
         }
 
         @Override
@@ -319,15 +1588,11 @@ public class ChatApp {
 
         System.out.println("Current rooms: ");
         for (ChatRoom r : manager.listRooms()) {
-            System.out.println(" - " + r.getRoomId() + " (users: " + r.getActiveUsers().size() + ")");
+            System.out.println(" - " + r.getRoomId() + " (users: " + r.getActiveUserCount() + ")");
         }
 
-        // Small delay to let async notifiers finish
-        Thread.sleep(500);
-
-        // Clean up
-        room.shutdown();
-        room2.shutdown();
+        // Clean up: closes the rooms and lets queued deliveries finish
+        manager.shutdown();
         System.out.println("=== Demo finished ===");
     }
 }
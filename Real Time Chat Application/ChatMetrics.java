@@ -0,0 +1,337 @@
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.Consumer;
+import java.util.logging.*;
+import javax.management.ObjectName;
+
+/**
+ * Delivery instrumentation for the chat engine: per-room post and rate-limit rejection counts,
+ * fan-out sizes, room queue depth and post-to-dequeue latency, per-lane delivery queue depth
+ * and wait, plus per-protocol Communicator send latency.
+ *
+ * Recording happens on the hot path and only touches counters and histograms. Reading is by
+ * interval: every intervalMillis a snapshot is cut (histograms reset), kept as latest(), handed
+ * to listeners and exposed over JMX as chat:type=ChatMetrics.
+ */
+public class ChatMetrics implements AutoCloseable {
+    public static final long DEFAULT_INTERVAL_MILLIS = 10_000;
+    private static final int HOT_ROOMS = 10;
+
+    private final Map<String, RoomMetrics> rooms = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> protocolSend = new ConcurrentHashMap<>();
+    private final Map<String, LaneMetrics> lanes = new ConcurrentHashMap<>();
+    private final Histogram directLatency = new Histogram();
+    private final LongAdder rejected = new LongAdder(); // all rate-limited posts, rooms and direct
+    private final List<Consumer<MetricsSnapshot>> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService reporter;
+    private final Logger logger = Logger.getLogger(ChatMetrics.class.getName());
+    private volatile MetricsSnapshot latest;
+    private long lastCut = System.nanoTime();
+
+    public ChatMetrics(long intervalMillis) {
+        if (intervalMillis <= 0) throw new IllegalArgumentException("intervalMillis > 0");
+        this.latest = new MetricsSnapshot(0, Collections.emptyList(), Collections.emptyList(), Collections.emptyMap(),
+                Histogram.Snapshot.EMPTY);
+        this.reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chat-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(this::snapshot, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Counters for one room; ChatRoom records into these directly. */
+    public static final class RoomMetrics {
+        final String roomId;
+        final LongAdder posts = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final Histogram fanOut = new Histogram();
+        final Histogram deliveryLatency = new Histogram(); // post -> taken off the mailbox, ns
+        final AtomicInteger queueDepth = new AtomicInteger();
+        final AtomicInteger peakQueueDepth = new AtomicInteger();
+        private final LongAdder totalRejected; // the registry-wide count this room also feeds
+        private long postsAtLastCut; // guarded by the ChatMetrics snapshot lock
+        private long rejectedAtLastCut;
+
+        RoomMetrics(String roomId, LongAdder totalRejected) {
+            this.roomId = roomId;
+            this.totalRejected = totalRejected;
+        }
+
+        void posted(int recipients) {
+            posts.increment();
+            fanOut.record(recipients);
+        }
+
+        void enqueued() {
+            int d = queueDepth.incrementAndGet();
+            if (d > peakQueueDepth.get()) peakQueueDepth.accumulateAndGet(d, Math::max);
+        }
+
+        void dequeued() { queueDepth.decrementAndGet(); }
+
+        void rejected() {
+            rejected.increment();
+            totalRejected.increment();
+        }
+    }
+
+    /** Counters for one DeliveryEngine lane, across all shards. */
+    public static final class LaneMetrics {
+        final String lane;
+        final LongAdder tasks = new LongAdder();
+        final Histogram queueWait = new Histogram(); // submitted -> started, ns
+        final AtomicInteger depth = new AtomicInteger();
+        final AtomicInteger peakDepth = new AtomicInteger();
+        private long tasksAtLastCut; // guarded by the ChatMetrics snapshot lock
+
+        LaneMetrics(String lane) { this.lane = lane; }
+
+        void queued() {
+            int d = depth.incrementAndGet();
+            if (d > peakDepth.get()) peakDepth.accumulateAndGet(d, Math::max);
+        }
+
+        void started(long waitNanos) {
+            depth.decrementAndGet();
+            tasks.increment();
+            queueWait.record(waitNanos);
+        }
+    }
+
+    public LaneMetrics lane(String lane) {
+        return lanes.computeIfAbsent(lane, LaneMetrics::new);
+    }
+
+    public RoomMetrics room(String roomId) {
+        return rooms.computeIfAbsent(roomId, id -> new RoomMetrics(id, rejected));
+    }
+
+    public void removeRoom(String roomId) {
+        rooms.remove(roomId);
+    }
+
+    public Histogram protocol(String protocolName) {
+        return protocolSend.computeIfAbsent(protocolName, p -> new Histogram());
+    }
+
+    Histogram directLatency() { return directLatency; }
+
+    void rejectedDirect() { rejected.increment(); }
+
+    public long getRejectedTotal() { return rejected.sum(); }
+
+    public void addListener(Consumer<MetricsSnapshot> listener) {
+        listeners.add(Objects.requireNonNull(listener));
+    }
+
+    public MetricsSnapshot latest() { return latest; }
+
+    // Cuts an interval now: rates and histograms cover the time since the previous cut
+    public synchronized MetricsSnapshot snapshot() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-9, (now - lastCut) / 1e9);
+        lastCut = now;
+        List<RoomSnapshot> roomSnapshots = new ArrayList<>(rooms.size());
+        for (RoomMetrics r : rooms.values()) {
+            long total = r.posts.sum();
+            long posts = total - r.postsAtLastCut;
+            r.postsAtLastCut = total;
+            long rejectedTotal = r.rejected.sum();
+            long rejectedPosts = rejectedTotal - r.rejectedAtLastCut;
+            r.rejectedAtLastCut = rejectedTotal;
+            int depth = r.queueDepth.get();
+            int peak = r.peakQueueDepth.getAndSet(depth);
+            roomSnapshots.add(new RoomSnapshot(r.roomId, posts, posts / seconds, rejectedPosts, depth, peak,
+                    r.fanOut.snapshotAndReset(), r.deliveryLatency.snapshotAndReset()));
+        }
+        roomSnapshots.sort(Comparator.comparingDouble((RoomSnapshot s) -> s.postsPerSecond).reversed());
+        List<LaneSnapshot> laneSnapshots = new ArrayList<>(lanes.size());
+        for (LaneMetrics l : lanes.values()) {
+            long total = l.tasks.sum();
+            long tasks = total - l.tasksAtLastCut;
+            l.tasksAtLastCut = total;
+            int depth = l.depth.get();
+            laneSnapshots.add(new LaneSnapshot(l.lane, tasks, depth, l.peakDepth.getAndSet(depth), l.queueWait.snapshotAndReset()));
+        }
+        laneSnapshots.sort(Comparator.comparing((LaneSnapshot l) -> l.lane));
+        Map<String, Histogram.Snapshot> sends = new TreeMap<>();
+        protocolSend.forEach((name, h) -> sends.put(name, h.snapshotAndReset()));
+        MetricsSnapshot s = new MetricsSnapshot((long) (seconds * 1000), roomSnapshots, laneSnapshots, sends,
+                directLatency.snapshotAndReset());
+        latest = s;
+        for (Consumer<MetricsSnapshot> l : listeners) {
+            try {
+                l.accept(s);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Metrics listener failed", e);
+            }
+        }
+        return s;
+    }
+
+    public static final class RoomSnapshot {
+        public final String roomId;
+        public final long posts;
+        public final double postsPerSecond;
+        public final long rejected;
+        public final int queueDepth;
+        public final int peakQueueDepth;
+        public final Histogram.Snapshot fanOut;
+        public final Histogram.Snapshot deliveryLatencyNanos;
+
+        RoomSnapshot(String roomId, long posts, double postsPerSecond, long rejected, int queueDepth, int peakQueueDepth,
+                     Histogram.Snapshot fanOut, Histogram.Snapshot deliveryLatencyNanos) {
+            this.roomId = roomId;
+            this.posts = posts;
+            this.postsPerSecond = postsPerSecond;
+            this.rejected = rejected;
+            this.queueDepth = queueDepth;
+            this.peakQueueDepth = peakQueueDepth;
+            this.fanOut = fanOut;
+            this.deliveryLatencyNanos = deliveryLatencyNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %.1f posts/s, %d rejected, fan-out p50=%d max=%d, queue %d (peak %d), latency p50=%dus p99=%dus",
+                    roomId, postsPerSecond, rejected, fanOut.valueAtPercentile(50), fanOut.getMax(), queueDepth, peakQueueDepth,
+                    deliveryLatencyNanos.valueAtPercentile(50) / 1000, deliveryLatencyNanos.valueAtPercentile(99) / 1000);
+        }
+    }
+
+    public static final class LaneSnapshot {
+        public final String lane;
+        public final long tasks;
+        public final int queueDepth;
+        public final int peakQueueDepth;
+        public final Histogram.Snapshot queueWaitNanos;
+
+        LaneSnapshot(String lane, long tasks, int queueDepth, int peakQueueDepth, Histogram.Snapshot queueWaitNanos) {
+            this.lane = lane;
+            this.tasks = tasks;
+            this.queueDepth = queueDepth;
+            this.peakQueueDepth = peakQueueDepth;
+            this.queueWaitNanos = queueWaitNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("lane %s: %d tasks, queue %d (peak %d), wait p50=%dus p99=%dus max=%dus",
+                    lane, tasks, queueDepth, peakQueueDepth, queueWaitNanos.valueAtPercentile(50) / 1000,
+                    queueWaitNanos.valueAtPercentile(99) / 1000, queueWaitNanos.getMax() / 1000);
+        }
+    }
+
+    /** One reporting interval. Rooms are ordered hottest first, lanes by name. */
+    public static final class MetricsSnapshot {
+        public final long intervalMillis;
+        public final List<RoomSnapshot> rooms;
+        public final List<LaneSnapshot> lanes;
+        public final Map<String, Histogram.Snapshot> protocolSendNanos;
+        public final Histogram.Snapshot directLatencyNanos;
+
+        MetricsSnapshot(long intervalMillis, List<RoomSnapshot> rooms, List<LaneSnapshot> lanes,
+                        Map<String, Histogram.Snapshot> protocolSendNanos, Histogram.Snapshot directLatencyNanos) {
+            this.intervalMillis = intervalMillis;
+            this.rooms = Collections.unmodifiableList(rooms);
+            this.lanes = Collections.unmodifiableList(lanes);
+            this.protocolSendNanos = Collections.unmodifiableMap(protocolSendNanos);
+            this.directLatencyNanos = directLatencyNanos;
+        }
+
+        public List<RoomSnapshot> hotRooms(int n) {
+            return rooms.subList(0, Math.min(n, rooms.size()));
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format("Chat metrics over %d ms%n", intervalMillis));
+            for (RoomSnapshot r : hotRooms(HOT_ROOMS)) sb.append("  ").append(r).append(System.lineSeparator());
+            for (LaneSnapshot l : lanes) sb.append("  ").append(l).append(System.lineSeparator());
+            protocolSendNanos.forEach((p, h) -> sb.append(String.format("  send %s: p50=%dus p99=%dus max=%dus%n",
+                    p, h.valueAtPercentile(50) / 1000, h.valueAtPercentile(99) / 1000, h.getMax() / 1000)));
+            sb.append("  direct messages: ").append(directLatencyNanos.getCount());
+            return sb.toString();
+        }
+    }
+
+    // ---- JMX ----
+
+    public interface ChatMetricsMXBean {
+        int getRoomCount();
+        double getPostsPerSecond();
+        long getRejectedMessages();
+        int getQueueDepth();
+        long getDeliveryLatencyP50Micros();
+        long getDeliveryLatencyP99Micros();
+        long getDeliveryLatencyMaxMicros();
+        String[] getHotRooms();
+        Map<String, Long> getProtocolSendP99Micros();
+        Map<String, Long> getLaneWaitP99Micros();
+        String getSnapshot();
+    }
+
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new JmxView(), new ObjectName("chat:type=ChatMetrics"));
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Could not register chat metrics MBean", e);
+        }
+    }
+
+    // Reads the latest interval, so JMX polling never resets anything itself
+    private final class JmxView implements ChatMetricsMXBean {
+        @Override public int getRoomCount() { return rooms.size(); }
+
+        @Override
+        public double getPostsPerSecond() {
+            return latest.rooms.stream().mapToDouble(r -> r.postsPerSecond).sum();
+        }
+
+        @Override public long getRejectedMessages() { return rejected.sum(); }
+
+        @Override
+        public int getQueueDepth() {
+            return rooms.values().stream().mapToInt(r -> r.queueDepth.get()).sum();
+        }
+
+        @Override public long getDeliveryLatencyP50Micros() { return worstRoom(50); }
+        @Override public long getDeliveryLatencyP99Micros() { return worstRoom(99); }
+        @Override public long getDeliveryLatencyMaxMicros() { return worstRoom(100); }
+
+        private long worstRoom(double percentile) {
+            long worst = 0;
+            for (RoomSnapshot r : latest.rooms) worst = Math.max(worst, r.deliveryLatencyNanos.valueAtPercentile(percentile));
+            return worst / 1000;
+        }
+
+        @Override
+        public String[] getHotRooms() {
+            return latest.hotRooms(HOT_ROOMS).stream().map(RoomSnapshot::toString).toArray(String[]::new);
+        }
+
+        @Override
+        public Map<String, Long> getProtocolSendP99Micros() {
+            Map<String, Long> m = new TreeMap<>();
+            latest.protocolSendNanos.forEach((p, h) -> m.put(p, h.valueAtPercentile(99) / 1000));
+            return m;
+        }
+
+        @Override
+        public Map<String, Long> getLaneWaitP99Micros() {
+            Map<String, Long> m = new TreeMap<>();
+            for (LaneSnapshot l : latest.lanes) m.put(l.lane, l.queueWaitNanos.valueAtPercentile(99) / 1000);
+            return m;
+        }
+
+        @Override public String getSnapshot() { return latest.toString(); }
+    }
+
+    @Override
+    public void close() {
+        reporter.shutdownNow();
+    }
+}
@@ -0,0 +1,652 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+
+/**
+ * Small non-blocking chat server: a few selector threads serve every connection, so one JVM
+ * can hold tens of thousands of sessions without a thread per client. Binds to localhost.
+ *
+ * Endpoints (query: user=<name>, optional room=<roomId>, optional lastSeq=<seq> to resume):
+ *   GET  /ws      WebSocket; text frames in are posted to the room ("/msg <user> <text>" for a DM)
+ *   GET  /events  Server-Sent Events stream, one "data:" event per message
+ *   POST /send    body is posted to the room as the given (already connected) user
+ *
+ * Outbound payloads are the shared JSON encodings from ChatApp.Message, copied into pooled
+ * direct buffers and written with gathering writes from the connection's event loop.
+ */
+public class ChatServer implements AutoCloseable {
+    private static final String WS_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int MAX_REQUEST_BYTES = 64 * 1024;
+    private static final int MAX_FRAME_BYTES = 64 * 1024;
+    private static final long MAX_QUEUED_BYTES = 4L << 20; // per connection, then it is dropped
+    private static final ChatApp.BatchConfig WS_BATCHING = new ChatApp.BatchConfig(32, 2);
+    private static final ChatApp.BatchConfig SSE_BATCHING = new ChatApp.BatchConfig(256, 25);
+
+    private final ChatApp.ChatRoomManager manager;
+    private final ServerSocketChannel server;
+    private final EventLoop[] loops;
+    private final BufferPool pool = new BufferPool(16 * 1024, 4096);
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final Logger logger = Logger.getLogger(ChatServer.class.getName());
+
+    public ChatServer(int port, int eventLoops, ChatApp.ChatRoomManager manager) throws IOException {
+        if (eventLoops <= 0) throw new IllegalArgumentException("eventLoops > 0");
+        this.manager = Objects.requireNonNull(manager);
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", port), 1024);
+        server.configureBlocking(false);
+        this.loops = new EventLoop[eventLoops];
+        for (int i = 0; i < eventLoops; i++) loops[i] = new EventLoop(i);
+        loops[0].execute(() -> {
+            try {
+                server.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+            } catch (ClosedChannelException e) {
+                logger.log(Level.WARNING, "Server closed before it started", e);
+            }
+        });
+    }
+
+    public void start() {
+        for (EventLoop l : loops) l.thread.start();
+    }
+
+    public int getPort() { return server.socket().getLocalPort(); }
+    public int getOpenConnections() { return openConnections.get(); }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        for (EventLoop l : loops) l.shutdown();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch;
+        while ((ch = server.accept()) != null) {
+            ch.configureBlocking(false);
+            ch.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+            EventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+            SocketChannel accepted = ch;
+            loop.execute(() -> loop.register(accepted));
+        }
+    }
+
+    /** One selector thread. Other threads hand it work through execute(). */
+    private final class EventLoop implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024); // shared by all its connections
+        volatile boolean running = true;
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "chat-server-loop-" + index);
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(SocketChannel ch) {
+            try {
+                Connection c = new Connection(ch, this);
+                c.key = ch.register(selector, SelectionKey.OP_READ, c);
+                openConnections.incrementAndGet();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Register failed", e);
+                closeQuietly(ch);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                    Runnable t;
+                    while ((t = tasks.poll()) != null) t.run();
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+                        Connection c = (Connection) key.attachment();
+                        if (key.isReadable()) c.onReadable();
+                        if (key.isValid() && key.isWritable()) c.flush();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    logger.log(Level.WARNING, "Event loop error", e);
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) ((Connection) key.attachment()).close();
+            }
+            closeQuietly(selector);
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+    }
+
+    private enum State { REQUEST, WEBSOCKET, SSE, CLOSED }
+
+    /** Per-connection state. Everything except the outbound queue is touched only by its loop. */
+    private final class Connection implements ChatApp.Communicator {
+        final SocketChannel channel;
+        final EventLoop loop;
+        SelectionKey key;
+        volatile State state = State.REQUEST; // read by delivery threads to pick the framing
+        ByteBuffer pendingIn;                 // unconsumed inbound bytes, heap; null when none
+        final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+        final ArrayDeque<ByteBuffer> writing = new ArrayDeque<>();
+        final AtomicLong queuedBytes = new AtomicLong();
+        final AtomicBoolean flushScheduled = new AtomicBoolean();
+        boolean closeAfterFlush;
+        volatile boolean closed;
+        ChatApp.User user;
+
+        Connection(SocketChannel channel, EventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+        }
+
+        void onReadable() {
+            ByteBuffer rb = loop.readBuffer;
+            rb.clear();
+            int n;
+            try {
+                n = channel.read(rb);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (n < 0) {
+                close();
+                return;
+            }
+            rb.flip();
+            ByteBuffer in;
+            if (pendingIn != null) {
+                if (pendingIn.remaining() < rb.remaining()) {
+                    ByteBuffer bigger = ByteBuffer.allocate(pendingIn.position() + rb.remaining() * 2);
+                    pendingIn.flip();
+                    bigger.put(pendingIn);
+                    pendingIn = bigger;
+                }
+                pendingIn.put(rb);
+                pendingIn.flip();
+                in = pendingIn;
+            } else {
+                in = rb;
+            }
+            while (state != State.CLOSED && in.hasRemaining()) {
+                int before = in.position();
+                if (state == State.REQUEST) readRequest(in);
+                else if (state == State.WEBSOCKET) readFrame(in);
+                else in.position(in.limit()); // SSE clients have nothing to say
+                if (in.position() == before) break; // need more bytes
+            }
+            if (state == State.CLOSED) return;
+            if (in.hasRemaining()) {
+                int limit = state == State.REQUEST ? MAX_REQUEST_BYTES : MAX_FRAME_BYTES + 14;
+                if (in.remaining() > limit) {
+                    close();
+                    return;
+                }
+                ByteBuffer keep = ByteBuffer.allocate(Math.max(1024, in.remaining() * 2));
+                keep.put(in);
+                pendingIn = keep;
+            } else {
+                pendingIn = null;
+            }
+        }
+
+        // ---- HTTP request / handshake ----
+
+        private void readRequest(ByteBuffer in) {
+            int end = indexOf(in, "\r\n\r\n");
+            if (end < 0) return;
+            int headerLen = end - in.position() + 4;
+            byte[] head = new byte[headerLen];
+            in.duplicate().get(head);
+            String[] lines = new String(head, StandardCharsets.ISO_8859_1).split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            Map<String, String> headers = new HashMap<>();
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon > 0) headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT), lines[i].substring(colon + 1).trim());
+            }
+            long contentLength = parseLong(headers.get("content-length"), 0);
+            if (contentLength < 0) {
+                respondAndClose("400 Bad Request");
+                return;
+            }
+            if (contentLength > MAX_REQUEST_BYTES - headerLen) {
+                respondAndClose("413 Payload Too Large");
+                return;
+            }
+            if (in.remaining() < headerLen + contentLength) return; // wait for the body
+            in.position(in.position() + headerLen);
+            byte[] body = new byte[(int) contentLength];
+            in.get(body);
+            if (requestLine.length < 2) {
+                respondAndClose("400 Bad Request");
+                return;
+            }
+            String target = requestLine[1];
+            int q = target.indexOf('?');
+            String path = q < 0 ? target : target.substring(0, q);
+            Map<String, String> params = parseQuery(q < 0 ? "" : target.substring(q + 1));
+            String username = params.get("user");
+            if (username == null || username.isEmpty()) {
+                respondAndClose("400 Bad Request");
+                return;
+            }
+            // validated before any handshake goes out, so a bad value gets a plain 400
+            long lastSeq = parseLong(params.get("lastSeq"), -1);
+            if (params.containsKey("lastSeq") && lastSeq < 0) {
+                respondAndClose("400 Bad Request");
+                return;
+            }
+            switch (requestLine[0] + " " + path) {
+                case "GET /ws":
+                    String wsKey = headers.get("sec-websocket-key");
+                    if (wsKey == null || !"websocket".equalsIgnoreCase(headers.get("upgrade"))) {
+                        respondAndClose("400 Bad Request");
+                        return;
+                    }
+                    writeAscii("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                            + "Sec-WebSocket-Accept: " + acceptKey(wsKey) + "\r\n\r\n");
+                    state = State.WEBSOCKET;
+                    openSession(username, params.get("room"), lastSeq);
+                    break;
+                case "GET /events":
+                    writeAscii("HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\nCache-Control: no-cache\r\n"
+                            + "Connection: keep-alive\r\n\r\n");
+                    state = State.SSE;
+                    openSession(username, params.get("room"), lastSeq);
+                    break;
+                case "POST /send":
+                    ChatApp.User sender = manager.findUser(username);
+                    ChatApp.ChatRoom room = params.containsKey("room") ? manager.createOrGetRoom(params.get("room")) : null;
+                    if (sender == null) {
+                        respondAndClose("404 Not Found");
+                        return;
+                    }
+                    handleText(sender, room, new String(body, StandardCharsets.UTF_8));
+                    respondAndClose("204 No Content");
+                    break;
+                default:
+                    respondAndClose("404 Not Found");
+            }
+        }
+
+        // lastSeq < 0: a fresh join with the usual history replay
+        private void openSession(String username, String roomId, long lastSeq) {
+            user = new ChatApp.User(username, this, ChatApp.Mailbox.DEFAULT_CAPACITY, ChatApp.OverflowPolicy.DROP_OLDEST, manager);
+            manager.connect(user);
+            if (roomId == null) return;
+            ChatApp.ChatRoom room = manager.createOrGetRoom(roomId);
+            if (lastSeq >= 0) room.join(user, lastSeq);
+            else room.join(user);
+        }
+
+        private void respondAndClose(String status) {
+            writeAscii("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n");
+            closeAfterFlush = true;
+            state = State.CLOSED;
+            flush();
+        }
+
+        // ---- WebSocket frames (client frames are always masked) ----
+
+        private void readFrame(ByteBuffer in) {
+            if (in.remaining() < 2) return;
+            int p = in.position();
+            int b0 = in.get(p) & 0xFF, b1 = in.get(p + 1) & 0xFF;
+            boolean fin = (b0 & 0x80) != 0;
+            int opcode = b0 & 0x0F;
+            long len = b1 & 0x7F;
+            int header = 2;
+            if (len == 126) {
+                if (in.remaining() < 4) return;
+                len = in.getShort(p + 2) & 0xFFFF;
+                header = 4;
+            } else if (len == 127) {
+                if (in.remaining() < 10) return;
+                len = in.getLong(p + 2);
+                header = 10;
+            }
+            if ((b1 & 0x80) == 0 || len > MAX_FRAME_BYTES || len < 0) {
+                sendClose(1002);
+                return;
+            }
+            if (in.remaining() < header + 4 + len) return;
+            byte[] mask = new byte[4];
+            in.position(p + header);
+            in.get(mask);
+            byte[] payload = new byte[(int) len];
+            in.get(payload);
+            for (int i = 0; i < payload.length; i++) payload[i] ^= mask[i & 3];
+            if (!fin) {
+                sendClose(1003); // fragmented messages are not supported
+                return;
+            }
+            switch (opcode) {
+                case 0x1:
+                    handleText(user, user.getCurrentRoom(), new String(payload, StandardCharsets.UTF_8));
+                    break;
+                case 0x8:
+                    sendClose(1000);
+                    break;
+                case 0x9:
+                    enqueue(wsFrame(0xA, Collections.singletonList(ByteBuffer.wrap(payload)), null));
+                    break;
+                case 0xA:
+                    break;
+                default:
+                    sendClose(1003);
+            }
+        }
+
+        private void sendClose(int code) {
+            ByteBuffer reason = ByteBuffer.allocate(2).putShort((short) code);
+            reason.flip();
+            enqueue(wsFrame(0x8, Collections.singletonList(reason), null));
+            closeAfterFlush = true;
+            state = State.CLOSED;
+            flush();
+        }
+
+        private void handleText(ChatApp.User from, ChatApp.ChatRoom room, String text) {
+            if (text.startsWith("/msg ")) {
+                String[] parts = text.split(" ", 3);
+                if (parts.length == 3) from.sendPrivateMessage(parts[1], parts[2]);
+            } else if (room != null) {
+                from.sendMessage(room, text);
+            } else {
+                from.sendMessage(text);
+            }
+        }
+
+        // ---- outbound: ChatApp.Communicator, called from delivery threads ----
+
+        @Override
+        public void send(String payload) {
+            sendEncoded(ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public void sendSystem(String system) {
+            send("{\"system\":" + ChatApp.WireFormat.jsonString(system) + "}");
+        }
+
+        @Override
+        public void sendEncoded(ByteBuffer payload) {
+            sendBatch(Collections.singletonList(payload));
+        }
+
+        // WebSocket: one newline-delimited frame. SSE: one event per message, one write.
+        @Override
+        public void sendBatch(List<ByteBuffer> payloads) {
+            if (closed) return;
+            enqueue(isWebSocket() ? wsFrame(0x1, payloads, (byte) '\n') : sseEvents(payloads));
+        }
+
+        @Override
+        public ChatApp.WireFormat wireFormat() { return ChatApp.WireFormat.JSON; }
+
+        @Override
+        public ChatApp.BatchConfig batchConfig() { return isWebSocket() ? WS_BATCHING : SSE_BATCHING; }
+
+        @Override
+        public String protocolName() { return isWebSocket() ? "WebSocket" : "SSE"; }
+
+        private boolean isWebSocket() { return state == State.WEBSOCKET; }
+
+        private List<ByteBuffer> wsFrame(int opcode, List<ByteBuffer> payloads, Byte separator) {
+            long len = 0;
+            for (ByteBuffer p : payloads) len += p.remaining();
+            if (separator != null) len += payloads.size() - 1;
+            BufferChain out = new BufferChain();
+            out.put((byte) (0x80 | opcode));
+            if (len < 126) {
+                out.put((byte) len);
+            } else if (len <= 0xFFFF) {
+                out.put((byte) 126);
+                out.put((byte) (len >>> 8));
+                out.put((byte) len);
+            } else {
+                out.put((byte) 127);
+                for (int shift = 56; shift >= 0; shift -= 8) out.put((byte) (len >>> shift));
+            }
+            for (int i = 0; i < payloads.size(); i++) {
+                if (i > 0 && separator != null) out.put(separator);
+                out.put(payloads.get(i).duplicate());
+            }
+            return out.finish();
+        }
+
+        private List<ByteBuffer> sseEvents(List<ByteBuffer> payloads) {
+            BufferChain out = new BufferChain();
+            for (ByteBuffer p : payloads) {
+                out.put(SSE_DATA.duplicate());
+                out.put(p.duplicate());
+                out.put(SSE_END.duplicate());
+            }
+            return out.finish();
+        }
+
+        private void writeAscii(String s) {
+            BufferChain out = new BufferChain();
+            out.put(ByteBuffer.wrap(s.getBytes(StandardCharsets.ISO_8859_1)));
+            enqueue(out.finish());
+        }
+
+        private void enqueue(List<ByteBuffer> buffers) {
+            long bytes = 0;
+            for (ByteBuffer b : buffers) {
+                bytes += b.remaining();
+                outbound.add(b);
+            }
+            if (queuedBytes.addAndGet(bytes) > MAX_QUEUED_BYTES) {
+                logger.info("Dropping slow connection " + (user != null ? user.getUsername() : "?"));
+                loop.execute(this::close);
+                return;
+            }
+            if (Thread.currentThread() == loop.thread) {
+                flush();
+            } else if (flushScheduled.compareAndSet(false, true)) {
+                loop.execute(this::flush);
+            }
+        }
+
+        // Gathering write of everything queued; leaves OP_WRITE on only while bytes remain
+        void flush() {
+            flushScheduled.set(false);
+            if (closed) return;
+            ByteBuffer b;
+            while ((b = outbound.poll()) != null) writing.add(b);
+            try {
+                while (!writing.isEmpty()) {
+                    ByteBuffer[] batch = writing.stream().limit(64).toArray(ByteBuffer[]::new);
+                    long written = channel.write(batch);
+                    queuedBytes.addAndGet(-written);
+                    while (!writing.isEmpty() && !writing.peek().hasRemaining()) pool.release(writing.poll());
+                    if (written == 0) break;
+                }
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (!key.isValid()) return;
+            if (writing.isEmpty()) {
+                key.interestOps(SelectionKey.OP_READ);
+                if (closeAfterFlush) close();
+            } else {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            state = State.CLOSED;
+            if (key != null) key.cancel();
+            closeQuietly(channel);
+            openConnections.decrementAndGet();
+            for (ByteBuffer b : writing) pool.release(b);
+            writing.clear();
+            ByteBuffer b;
+            while ((b = outbound.poll()) != null) pool.release(b);
+            if (user != null) manager.disconnect(user);
+        }
+    }
+
+    private static final ByteBuffer SSE_DATA = ByteBuffer.wrap("data: ".getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+    private static final ByteBuffer SSE_END = ByteBuffer.wrap("\n\n".getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+
+    /** Copies bytes into a chain of pooled direct buffers. */
+    private final class BufferChain {
+        private final List<ByteBuffer> chunks = new ArrayList<>(2);
+        private ByteBuffer cur;
+
+        void put(byte b) {
+            if (cur == null || !cur.hasRemaining()) next();
+            cur.put(b);
+        }
+
+        void put(ByteBuffer src) {
+            while (src.hasRemaining()) {
+                if (cur == null || !cur.hasRemaining()) next();
+                int n = Math.min(cur.remaining(), src.remaining());
+                ByteBuffer slice = src.duplicate();
+                slice.limit(slice.position() + n);
+                cur.put(slice);
+                src.position(src.position() + n);
+            }
+        }
+
+        private void next() {
+            cur = pool.acquire();
+            chunks.add(cur);
+        }
+
+        List<ByteBuffer> finish() {
+            for (ByteBuffer c : chunks) c.flip();
+            return chunks;
+        }
+    }
+
+    /** Fixed-size direct buffers, reused across connections; bounded so idle memory stays flat. */
+    static final class BufferPool {
+        private final int bufferSize;
+        private final int maxPooled;
+        private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pooled = new AtomicInteger();
+
+        BufferPool(int bufferSize, int maxPooled) {
+            this.bufferSize = bufferSize;
+            this.maxPooled = maxPooled;
+        }
+
+        ByteBuffer acquire() {
+            ByteBuffer b = free.poll();
+            if (b == null) return ByteBuffer.allocateDirect(bufferSize);
+            pooled.decrementAndGet();
+            b.clear();
+            return b;
+        }
+
+        void release(ByteBuffer b) {
+            if (!b.isDirect() || b.capacity() != bufferSize) return;
+            if (pooled.incrementAndGet() <= maxPooled) {
+                free.add(b);
+            } else {
+                pooled.decrementAndGet();
+            }
+        }
+    }
+
+    // ---- helpers ----
+
+    static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key.trim() + WS_GUID).getBytes(StandardCharsets.ISO_8859_1));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 unavailable", e);
+        }
+    }
+
+    private static int indexOf(ByteBuffer in, String marker) {
+        byte[] m = marker.getBytes(StandardCharsets.ISO_8859_1);
+        outer:
+        for (int i = in.position(); i <= in.limit() - m.length; i++) {
+            for (int j = 0; j < m.length; j++) {
+                if (in.get(i + j) != m[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            String k = eq < 0 ? pair : pair.substring(0, eq);
+            String v = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(k, StandardCharsets.UTF_8), URLDecoder.decode(v, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    // Null gives the fallback; anything that is not a non-negative number gives -1
+    private static long parseLong(String s, long fallback) {
+        if (s == null) return fallback;
+        try {
+            long v = Long.parseLong(s.trim());
+            return v < 0 ? -1 : v;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable c) {
+        try {
+            c.close();
+        } catch (Exception ignored) {
+            // already closing
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        int loops = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        ChatServer server = new ChatServer(port, loops, ChatApp.ChatRoomManager.getInstance());
+        server.start();
+        System.out.println("Chat server on 127.0.0.1:" + server.getPort() + " with " + loops + " event loop(s)");
+        System.out.println("  ws://127.0.0.1:" + server.getPort() + "/ws?user=alice&room=lobby");
+        System.out.println("  curl -N 'http://127.0.0.1:" + server.getPort() + "/events?user=bob&room=lobby'");
+    }
+}
@@ -0,0 +1,464 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.logging.*;
+
+/**
+ * One member of a partitioned chat cluster. Every room is owned by exactly one node, chosen by a
+ * consistent-hash ring over the current members; the owner holds the ChatRoom, its history and
+ * its fan-out. A user connected to any other node is represented on the owner by a proxy User
+ * whose Communicator relays deliveries back to the user's node, and the user's posts travel to
+ * the owner as POST envelopes. Local rooms are served exactly as in a single JVM.
+ *
+ * When membership changes, rooms whose owner moved are handed over with their history (sequence
+ * numbers kept) and every member is re-joined at the new owner as a resume, so clients see no
+ * replay. Nodes talk through a Transport; InProcessTransport runs a whole cluster in one JVM.
+ *
+ * Direct messages stay node-local, and a node that vanishes without close() loses its rooms.
+ */
+public class ClusterNode implements AutoCloseable {
+    private static final ChatApp.BatchConfig RELAY_BATCHING = new ChatApp.BatchConfig(64, 1);
+    private static final int MAX_HOPS = 2; // forwards allowed while ring views disagree
+
+    private final String nodeId;
+    private final Transport transport;
+    private final ChatApp.ChatRoomManager manager;
+    private final Map<String, ChatApp.User> proxies = new ConcurrentHashMap<>();  // remote users of rooms owned here
+    private final Map<String, Set<ChatApp.User>> remoteRooms = new ConcurrentHashMap<>(); // local users of rooms owned elsewhere
+    private final Map<String, String> movedTo = new ConcurrentHashMap<>();        // rooms handed off, by new owner
+    private final Logger logger = Logger.getLogger(ClusterNode.class.getName());
+    private volatile HashRing ring;
+    private volatile boolean leaving;
+
+    public ClusterNode(String nodeId, Transport transport, ChatApp.ChatRoomManager manager) {
+        this.nodeId = Objects.requireNonNull(nodeId);
+        this.transport = Objects.requireNonNull(transport);
+        this.manager = Objects.requireNonNull(manager);
+        this.ring = new HashRing(Collections.singleton(nodeId));
+        transport.join(nodeId, new Receiver() {
+            @Override public void onEnvelope(Envelope e) { handle(e); }
+            @Override public void onMembership(Set<String> nodes) { rebalance(new HashRing(nodes)); }
+        });
+    }
+
+    public String getNodeId() { return nodeId; }
+    public ChatApp.ChatRoomManager getManager() { return manager; }
+    public String ownerOf(String roomId) { return ring.ownerOf(roomId); }
+    public boolean ownsRoom(String roomId) { return nodeId.equals(ownerOf(roomId)); }
+
+    // ---- user-facing API ----
+
+    public void join(ChatApp.User user, String roomId) {
+        join(user, roomId, -1);
+    }
+
+    // lastSeenSeq >= 0 resumes after that message, as ChatRoom.join(User, long) does
+    public void join(ChatApp.User user, String roomId, long lastSeenSeq) {
+        manager.connect(user);
+        String owner = ownerOf(roomId);
+        if (owner.equals(nodeId)) {
+            joinLocal(user, manager.createOrGetRoom(roomId), lastSeenSeq);
+        } else {
+            remoteRooms.computeIfAbsent(roomId, r -> ConcurrentHashMap.newKeySet()).add(user);
+            transport.send(nodeId, owner, Envelope.join(nodeId, roomId, user.getUsername(),
+                    user.getCommunicator().wireFormat(), lastSeenSeq));
+        }
+    }
+
+    public void post(ChatApp.User user, String roomId, String text) {
+        if (remoteRooms.getOrDefault(roomId, Collections.emptySet()).contains(user)) {
+            transport.send(nodeId, ownerOf(roomId), Envelope.post(nodeId, roomId, user.getUsername(), text));
+            return;
+        }
+        ChatApp.ChatRoom room = findRoom(user, roomId);
+        if (room == null) {
+            user.getCommunicator().sendSystem("You are not in room " + roomId + ".");
+            return;
+        }
+        user.sendMessage(room, text);
+    }
+
+    public void leave(ChatApp.User user, String roomId) {
+        Set<ChatApp.User> remote = remoteRooms.get(roomId);
+        if (remote != null && remote.remove(user)) {
+            transport.send(nodeId, ownerOf(roomId), Envelope.leave(nodeId, roomId, user.getUsername()));
+            return;
+        }
+        for (ChatApp.ChatRoom r : user.getRooms()) {
+            if (r.getRoomId().equals(roomId)) r.leave(user);
+        }
+    }
+
+    public void disconnect(ChatApp.User user) {
+        for (Map.Entry<String, Set<ChatApp.User>> e : remoteRooms.entrySet()) {
+            if (e.getValue().remove(user)) {
+                transport.send(nodeId, ownerOf(e.getKey()), Envelope.leave(nodeId, e.getKey(), user.getUsername()));
+            }
+        }
+        manager.disconnect(user);
+    }
+
+    // Graceful leave: hands every room to its next owner, then drops out of the cluster
+    @Override
+    public void close() {
+        leaving = true;
+        Set<String> others = new HashSet<>(ring.nodes());
+        others.remove(nodeId);
+        if (!others.isEmpty()) rebalance(new HashRing(others));
+        transport.leave(nodeId);
+        try {
+            manager.shutdown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void joinLocal(ChatApp.User user, ChatApp.ChatRoom room, long lastSeenSeq) {
+        if (lastSeenSeq >= 0) room.join(user, lastSeenSeq);
+        else room.join(user);
+    }
+
+    // ---- inbound ----
+
+    private void handle(Envelope e) {
+        // A room that has moved on, or a sender whose ring view differs from ours: pass it along
+        if (e.roomId != null && e.kind.routedByRoom) {
+            String target = movedTo.getOrDefault(e.roomId, ownerOf(e.roomId));
+            if (!target.equals(nodeId) && e.hops < MAX_HOPS) {
+                transport.send(nodeId, target, e.forwarded());
+                return;
+            }
+        }
+        switch (e.kind) {
+            case JOIN:
+                if (e.origin.equals(nodeId)) {
+                    // our own user, whose room has just moved here
+                    ChatApp.User local = manager.findUser(e.user);
+                    if (local == null) return;
+                    Set<ChatApp.User> remote = remoteRooms.get(e.roomId);
+                    if (remote != null) remote.remove(local);
+                    joinLocal(local, manager.createOrGetRoom(e.roomId), e.sequence);
+                } else {
+                    ChatApp.User proxy = proxies.computeIfAbsent(e.user, name -> new ChatApp.User(name,
+                            new RelayCommunicator(e.origin, name, e.format), ChatApp.Mailbox.DEFAULT_CAPACITY,
+                            ChatApp.OverflowPolicy.DROP_OLDEST, manager));
+                    joinLocal(proxy, manager.createOrGetRoom(e.roomId), e.sequence);
+                }
+                break;
+            case POST:
+                ChatApp.User poster = proxies.get(e.user);
+                ChatApp.ChatRoom room = findRoom(poster, e.roomId);
+                if (room != null) poster.sendMessage(room, e.text);
+                break;
+            case LEAVE:
+                ChatApp.User leaver = proxies.get(e.user);
+                ChatApp.ChatRoom left = findRoom(leaver, e.roomId);
+                if (left != null) left.leave(leaver);
+                if (leaver != null && leaver.getRooms().isEmpty()) releaseProxy(leaver);
+                break;
+            case DELIVER:
+                ChatApp.User target = manager.findUser(e.user);
+                if (target == null) return;
+                if (e.payloads.size() == 1) target.getCommunicator().sendEncoded(e.payloads.get(0));
+                else target.getCommunicator().sendBatch(e.payloads);
+                break;
+            case SYSTEM:
+                ChatApp.User notified = manager.findUser(e.user);
+                if (notified != null) notified.getCommunicator().sendSystem(e.text);
+                break;
+            case HANDOFF:
+                movedTo.remove(e.roomId);
+                if (manager.adoptRoom(e.roomId, e.history, e.sequence) == null) {
+                    logger.warning(nodeId + " already had room " + e.roomId + "; handed-over history ignored");
+                }
+                break;
+            default:
+                logger.warning("Unhandled envelope " + e.kind);
+        }
+    }
+
+    private static ChatApp.ChatRoom findRoom(ChatApp.User user, String roomId) {
+        if (user == null) return null;
+        for (ChatApp.ChatRoom r : user.getRooms()) {
+            if (r.getRoomId().equals(roomId)) return r;
+        }
+        return null;
+    }
+
+    private void releaseProxy(ChatApp.User proxy) {
+        proxies.remove(proxy.getUsername(), proxy);
+        manager.disconnect(proxy);
+    }
+
+    // ---- rebalancing ----
+
+    // Runs on the transport's thread for this node, one membership change at a time
+    private synchronized void rebalance(HashRing next) {
+        if (leaving && next.nodes().contains(nodeId)) return; // stale view arriving after close()
+        ring = next;
+        // parked rooms move too; waking them first lets handOff treat every room the same way
+        for (String roomId : new ArrayList<>(manager.parkedRoomIds())) {
+            if (!next.ownerOf(roomId).equals(nodeId)) manager.createOrGetRoom(roomId);
+        }
+        for (ChatApp.ChatRoom room : new ArrayList<>(manager.listRooms())) {
+            String owner = next.ownerOf(room.getRoomId());
+            if (!owner.equals(nodeId)) handOff(room, owner);
+        }
+        // Rooms we reach remotely may now be ours or someone else's; the old owner re-joins
+        // their members, so there is nothing to resend from here.
+        logger.fine(() -> nodeId + " sees " + next.nodes());
+    }
+
+    // Ships history, then one resume JOIN per member, all on the same ordered link to the new owner
+    private void handOff(ChatApp.ChatRoom room, String newOwner) {
+        String roomId = room.getRoomId();
+        movedTo.put(roomId, newOwner);
+        List<ChatApp.Message> history = new ArrayList<>(room.getHistory());
+        long next = room.getHistoryStore().nextSequence();
+        transport.send(nodeId, newOwner, Envelope.handoff(nodeId, roomId, history, next));
+        for (ChatApp.User member : room.getMembers()) {
+            String origin = nodeId;
+            if (member.getCommunicator() instanceof RelayCommunicator) {
+                origin = ((RelayCommunicator) member.getCommunicator()).origin;
+            } else {
+                remoteRooms.computeIfAbsent(roomId, r -> ConcurrentHashMap.newKeySet()).add(member);
+            }
+            transport.send(nodeId, newOwner, Envelope.join(origin, roomId, member.getUsername(),
+                    member.getCommunicator().wireFormat(), next - 1));
+        }
+        for (ChatApp.User member : room.getMembers()) {
+            member.left(room);
+            if (member.getCommunicator() instanceof RelayCommunicator && member.getRooms().isEmpty()) releaseProxy(member);
+        }
+        manager.dropRoom(roomId);
+        logger.info(() -> String.format("%s handed room %s (%d messages) to %s", nodeId, roomId, history.size(), newOwner));
+    }
+
+    /** Stands in for a remote user on the room's owner; everything it is sent goes back over the wire. */
+    private final class RelayCommunicator implements ChatApp.Communicator {
+        final String origin;
+        final String user;
+        final ChatApp.WireFormat format;
+
+        RelayCommunicator(String origin, String user, ChatApp.WireFormat format) {
+            this.origin = origin;
+            this.user = user;
+            this.format = format;
+        }
+
+        @Override
+        public void send(String message) {
+            sendEncoded(ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public void sendSystem(String message) {
+            transport.send(nodeId, origin, Envelope.system(nodeId, user, message));
+        }
+
+        @Override
+        public void sendEncoded(ByteBuffer payload) {
+            transport.send(nodeId, origin, Envelope.deliver(nodeId, user, Collections.singletonList(payload)));
+        }
+
+        @Override
+        public void sendBatch(List<ByteBuffer> payloads) {
+            transport.send(nodeId, origin, Envelope.deliver(nodeId, user, new ArrayList<>(payloads)));
+        }
+
+        @Override public ChatApp.WireFormat wireFormat() { return format; }
+        @Override public ChatApp.BatchConfig batchConfig() { return RELAY_BATCHING; }
+        @Override public String protocolName() { return "Relay"; }
+    }
+
+    // ---- ring ----
+
+    /** Consistent-hash ring with virtual nodes; immutable, replaced whole on membership change. */
+    public static final class HashRing {
+        private static final int VIRTUAL_NODES = 128;
+        private final NavigableMap<Long, String> points = new TreeMap<>();
+        private final Set<String> nodes;
+
+        public HashRing(Collection<String> nodes) {
+            if (nodes.isEmpty()) throw new IllegalArgumentException("ring needs at least one node");
+            this.nodes = Collections.unmodifiableSet(new TreeSet<>(nodes));
+            for (String n : this.nodes) {
+                for (int v = 0; v < VIRTUAL_NODES; v++) points.put(hash(n + "#" + v), n);
+            }
+        }
+
+        public String ownerOf(String key) {
+            Map.Entry<Long, String> e = points.ceilingEntry(hash(key));
+            return (e != null ? e : points.firstEntry()).getValue();
+        }
+
+        public Set<String> nodes() { return nodes; }
+
+        // FNV-1a, then the murmur3 finalizer so nearby names spread over the whole ring
+        static long hash(String s) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < s.length(); i++) {
+                h ^= s.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb93fe53e87c5L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+
+    // ---- transport ----
+
+    /**
+     * How nodes reach each other. Envelopes from one node to another must arrive in send order;
+     * handoff correctness relies on it. Membership changes are reported to every member.
+     */
+    public interface Transport {
+        void join(String nodeId, Receiver receiver);
+        void leave(String nodeId);
+        void send(String fromNode, String toNode, Envelope envelope);
+    }
+
+    public interface Receiver {
+        void onEnvelope(Envelope envelope);
+        void onMembership(Set<String> nodes);
+    }
+
+    /** Everything a node says to another. Immutable; fields unused by a kind are null or -1. */
+    public static final class Envelope {
+        public enum Kind {
+            JOIN(true), POST(true), LEAVE(true), HANDOFF(false), DELIVER(false), SYSTEM(false);
+
+            final boolean routedByRoom; // must reach the room's current owner
+            Kind(boolean routedByRoom) { this.routedByRoom = routedByRoom; }
+        }
+
+        public final Kind kind;
+        public final String origin;   // node the user is connected to (JOIN/POST/LEAVE) or the sender
+        public final String roomId;
+        public final String user;
+        public final String text;
+        public final long sequence;   // JOIN: last seen, HANDOFF: next sequence
+        public final ChatApp.WireFormat format;
+        public final List<ByteBuffer> payloads;
+        public final List<ChatApp.Message> history;
+        final int hops;
+
+        private Envelope(Kind kind, String origin, String roomId, String user, String text, long sequence,
+                         ChatApp.WireFormat format, List<ByteBuffer> payloads, List<ChatApp.Message> history, int hops) {
+            this.kind = kind;
+            this.origin = origin;
+            this.roomId = roomId;
+            this.user = user;
+            this.text = text;
+            this.sequence = sequence;
+            this.format = format;
+            this.payloads = payloads;
+            this.history = history;
+            this.hops = hops;
+        }
+
+        static Envelope join(String origin, String roomId, String user, ChatApp.WireFormat format, long lastSeen) {
+            return new Envelope(Kind.JOIN, origin, roomId, user, null, lastSeen, format, null, null, 0);
+        }
+
+        static Envelope post(String origin, String roomId, String user, String text) {
+            return new Envelope(Kind.POST, origin, roomId, user, text, -1, null, null, null, 0);
+        }
+
+        static Envelope leave(String origin, String roomId, String user) {
+            return new Envelope(Kind.LEAVE, origin, roomId, user, null, -1, null, null, null, 0);
+        }
+
+        static Envelope handoff(String origin, String roomId, List<ChatApp.Message> history, long next) {
+            return new Envelope(Kind.HANDOFF, origin, roomId, null, null, next, null, null, history, 0);
+        }
+
+        static Envelope deliver(String origin, String user, List<ByteBuffer> payloads) {
+            return new Envelope(Kind.DELIVER, origin, null, user, null, -1, null, payloads, null, 0);
+        }
+
+        static Envelope system(String origin, String user, String text) {
+            return new Envelope(Kind.SYSTEM, origin, null, user, text, -1, null, null, null, 0);
+        }
+
+        Envelope forwarded() {
+            return new Envelope(kind, origin, roomId, user, text, sequence, format, payloads, history, hops + 1);
+        }
+    }
+
+    /**
+     * Whole cluster in one JVM: each node gets one inbound thread, which keeps every link FIFO
+     * and gives each node a single thread for envelopes and membership changes.
+     */
+    public static final class InProcessTransport implements Transport {
+        private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+        private final Logger logger = Logger.getLogger(InProcessTransport.class.getName());
+
+        private static final class Endpoint {
+            final Receiver receiver;
+            final ExecutorService inbound;
+
+            Endpoint(String nodeId, Receiver receiver) {
+                this.receiver = receiver;
+                this.inbound = Executors.newSingleThreadExecutor(r -> {
+                    Thread t = new Thread(r, "cluster-" + nodeId);
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+
+            void run(Runnable task, Consumer<RuntimeException> onError) {
+                try {
+                    inbound.execute(() -> {
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            onError.accept(e);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // endpoint already gone
+                }
+            }
+        }
+
+        @Override
+        public synchronized void join(String nodeId, Receiver receiver) {
+            if (endpoints.putIfAbsent(nodeId, new Endpoint(nodeId, receiver)) != null) {
+                throw new IllegalArgumentException("node already joined: " + nodeId);
+            }
+            announce();
+        }
+
+        @Override
+        public synchronized void leave(String nodeId) {
+            Endpoint gone = endpoints.remove(nodeId);
+            if (gone != null) gone.inbound.shutdown(); // what was already sent to it still runs
+            announce();
+        }
+
+        private void announce() {
+            Set<String> members = Collections.unmodifiableSet(new TreeSet<>(endpoints.keySet()));
+            for (Endpoint ep : endpoints.values()) {
+                ep.run(() -> ep.receiver.onMembership(members), e -> logger.log(Level.WARNING, "Membership handler failed", e));
+            }
+        }
+
+        @Override
+        public void send(String fromNode, String toNode, Envelope envelope) {
+            Endpoint ep = endpoints.get(toNode);
+            if (ep == null) {
+                logger.warning("Dropping " + envelope.kind + " from " + fromNode + ": " + toNode + " is not a member");
+                return;
+            }
+            ep.run(() -> ep.receiver.onEnvelope(envelope),
+                    e -> logger.log(Level.WARNING, "Envelope " + envelope.kind + " failed on " + toNode, e));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * A parked room: what ChatRoomManager keeps of a room that sat empty past the idle TTL.
+ * In-memory history is packed into one byte array (sender ids from Symbols instead of names,
+ * no per-message objects); a persistent history keeps nothing here because its store can
+ * simply be reopened from disk, and a TieredHistoryStore is kept compacted into whole blocks.
+ * thaw() turns it back into a live HistoryStore.
+ */
+final class ColdRoom {
+    final String roomId;
+    private final int capacity;
+    private final long firstSeq;
+    private final long nextSeq;
+    private final int count;
+    private final byte[] packed; // null when the history store is persistent or tiered
+    private final TieredHistoryStore tiered;
+
+    private ColdRoom(String roomId, int capacity, long firstSeq, long nextSeq, int count, byte[] packed,
+                     TieredHistoryStore tiered) {
+        this.roomId = roomId;
+        this.capacity = capacity;
+        this.firstSeq = firstSeq;
+        this.nextSeq = nextSeq;
+        this.count = count;
+        this.packed = packed;
+        this.tiered = tiered;
+    }
+
+    // The room must be quiet: its retained history is contiguous from firstSequence()
+    static ColdRoom freeze(String roomId, ChatApp.HistoryStore store) {
+        if (store.isPersistent()) {
+            return new ColdRoom(roomId, store.capacity(), store.firstSequence(), store.nextSequence(), store.size(), null, null);
+        }
+        if (store instanceof TieredHistoryStore) {
+            TieredHistoryStore t = ((TieredHistoryStore) store).compacted();
+            return new ColdRoom(roomId, t.capacity(), t.firstSequence(), t.nextSequence(), t.size(), null, t);
+        }
+        List<ChatApp.Message> history = store.snapshot();
+        long first = history.isEmpty() ? store.nextSequence() : history.get(0).getSequence();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(history.size() * 32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (ChatApp.Message m : history) {
+                byte[] text = m.getText().getBytes(StandardCharsets.UTF_8);
+                out.writeLong(m.getEpochMillis());
+                out.writeInt(m.getFromId());
+                out.writeInt(text.length);
+                out.write(text);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // in-memory stream
+        }
+        return new ColdRoom(roomId, store.capacity(), first, store.nextSequence(), history.size(), bytes.toByteArray(), null);
+    }
+
+    // Rebuilds an in-memory store with the same numbering; persistent rooms reopen through 'reopen'
+    ChatApp.HistoryStore thaw(java.util.function.Function<String, ChatApp.HistoryStore> reopen) {
+        if (tiered != null) return tiered;
+        if (packed == null) return reopen.apply(roomId);
+        ChatApp.RingHistoryStore store = new ChatApp.RingHistoryStore(capacity, firstSeq);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(packed))) {
+            for (int i = 0; i < count; i++) {
+                long epochMillis = in.readLong();
+                String from = ChatApp.Symbols.name(in.readInt());
+                byte[] text = new byte[in.readInt()];
+                in.readFully(text);
+                store.append(new ChatApp.Message(from, roomId, null, new String(text, StandardCharsets.UTF_8), epochMillis));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return store;
+    }
+
+    long nextSequence() { return nextSeq; }
+    int messageCount() { return count; }
+    long packedBytes() { return tiered != null ? tiered.coldBytes() : packed == null ? 0 : packed.length; }
+}
@@ -0,0 +1,126 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Function;
+import java.util.logging.*;
+
+/**
+ * HistoryStore that survives restarts. Every append goes to the room's MessageLog; reads
+ * are served from a RingHistoryStore window that is refilled from the log tail on startup,
+ * so a restart costs one tail read rather than a replay of the whole log.
+ *
+ * Usage:
+ *   manager.setHistoryStoreFactory(DurableHistoryStore.factory(Paths.get("chat-data"), 1000, MessageLog.Config.defaults()));
+ */
+public class DurableHistoryStore implements ChatApp.HistoryStore {
+    private final ChatApp.RingHistoryStore window;
+    private final MessageLog log;
+    private final Logger logger = Logger.getLogger(DurableHistoryStore.class.getName());
+
+    public DurableHistoryStore(Path roomDir, int windowCapacity, MessageLog.Config config) throws IOException {
+        this.log = MessageLog.open(roomDir, config);
+        List<ChatApp.Message> tail = log.tail(windowCapacity);
+        // the window numbers messages consecutively, so keep only the tail after any gap
+        int start = tail.size();
+        while (start > 0 && (start == tail.size() || tail.get(start - 1).getSequence() == tail.get(start).getSequence() - 1)) {
+            start--;
+        }
+        long firstSeq = start < tail.size() ? tail.get(start).getSequence() : log.nextSeq();
+        this.window = new ChatApp.RingHistoryStore(windowCapacity, firstSeq);
+        for (ChatApp.Message m : tail.subList(start, tail.size())) {
+            window.append(m);
+        }
+    }
+
+    public static Function<String, ChatApp.HistoryStore> factory(Path baseDir, int windowCapacity, MessageLog.Config config) {
+        return roomId -> {
+            try {
+                return new DurableHistoryStore(baseDir.resolve(directoryName(roomId)), windowCapacity, config);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot open history for room " + roomId, e);
+            }
+        };
+    }
+
+    // Room ids are user input; keep them from escaping baseDir or colliding after cleanup
+    static String directoryName(String roomId) {
+        String safe = roomId.replaceAll("[^A-Za-z0-9_-]", "_");
+        return safe.equals(roomId) ? safe : safe + "-" + Integer.toHexString(roomId.hashCode());
+    }
+
+    // Serialized so the log sees sequences in the order the window handed them out
+    @Override
+    public synchronized long append(ChatApp.Message message) {
+        long seq = window.append(message);
+        try {
+            log.append(message);
+        } catch (IOException e) {
+            // the message still reaches the room; it just will not survive a restart
+            logger.log(Level.SEVERE, "History append failed for room " + message.getToRoom(), e);
+        }
+        return seq;
+    }
+
+    @Override
+    public List<ChatApp.Message> snapshot() { return window.snapshot(); }
+
+    @Override
+    public List<ChatApp.Message> lastN(int n) { return window.lastN(n); }
+
+    @Override
+    public List<ChatApp.Message> since(LocalDateTime from) { return window.since(from); }
+
+    @Override
+    public List<ChatApp.Message> fromSequence(long seq) { return window.fromSequence(seq); }
+
+    @Override
+    public long firstSequence() { return window.firstSequence(); }
+
+    // Anything still in the log, not just the window
+    @Override
+    public long firstReadableSequence() { return log.firstSeq(); }
+
+    @Override
+    public ChatApp.Message get(long seq) {
+        if (seq >= window.firstSequence()) return window.get(seq);
+        try {
+            List<ChatApp.Message> found = log.read(seq, 1);
+            return !found.isEmpty() && found.get(0).getSequence() == seq ? found.get(0) : null;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "History read failed at #" + seq, e);
+            return null;
+        }
+    }
+
+    @Override
+    public long nextSequence() { return window.nextSequence(); }
+
+    // Only while the window is empty; the log starts a new segment at the jump
+    @Override
+    public synchronized boolean continueFrom(long seq) {
+        return seq >= log.nextSeq() && window.continueFrom(seq);
+    }
+
+    @Override
+    public int size() { return window.size(); }
+
+    @Override
+    public int capacity() { return window.capacity(); }
+
+    public MessageLog getLog() { return log; }
+
+    // The log holds everything; a parked room reopens it instead of keeping a copy
+    @Override
+    public boolean isPersistent() { return true; }
+
+    @Override
+    public void close() {
+        try {
+            log.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Error closing history log", e);
+        }
+    }
+}
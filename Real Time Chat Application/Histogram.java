@@ -0,0 +1,100 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * HDR-style log-linear histogram of non-negative longs (nanoseconds, fan-out sizes, ...).
+ * Every power of two is split into 16 linear sub-buckets, so reported values are at most
+ * about 6% above what was recorded. Recording is a few atomic adds on preallocated arrays:
+ * no locks, no allocation.
+ * Values above 2^40 (about 18 minutes in nanoseconds) land in the top bucket.
+ */
+public class Histogram {
+    private static final int SUB_BITS = 4;                   // 16 sub-buckets per power of two
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int LINEAR = 1 << (SUB_BITS + 1);   // values below 32 are exact
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = LINEAR + (MAX_EXPONENT - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(indexOf(value));
+        sum.addAndGet(value);
+        if (value > max.get()) max.accumulateAndGet(value, Math::max);
+    }
+
+    static int indexOf(long value) {
+        if (value < LINEAR) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return LINEAR + (exponent - SUB_BITS - 1) * SUB_COUNT + sub;
+    }
+
+    // Highest value that maps to the bucket
+    static long upperBound(int index) {
+        if (index < LINEAR) return index;
+        int k = index - LINEAR;
+        int exponent = k / SUB_COUNT + SUB_BITS + 1;
+        long width = 1L << (exponent - SUB_BITS);
+        return ((long) (SUB_COUNT + k % SUB_COUNT) << (exponent - SUB_BITS)) + width - 1;
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) copy[i] = counts.get(i);
+        return new Snapshot(copy, sum.get(), max.get());
+    }
+
+    // Interval reading: returns what was recorded since the last reset and starts over.
+    // Values recorded during the call land in one interval or the next, never both.
+    public Snapshot snapshotAndReset() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) copy[i] = counts.getAndSet(i, 0);
+        return new Snapshot(copy, sum.getAndSet(0), max.getAndSet(0));
+    }
+
+    /** Immutable copy of a histogram. */
+    public static final class Snapshot {
+        public static final Snapshot EMPTY = new Snapshot(new long[BUCKETS], 0, 0);
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long sum, long max) {
+            this.counts = counts;
+            long c = 0;
+            for (long n : counts) c += n;
+            this.count = c;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() { return count; }
+        public long getMax() { return max; }
+        public double getMean() { return count == 0 ? 0 : (double) sum / count; }
+
+        // Smallest bucket bound covering 'percentile' (0..100) of the values, capped at max
+        public long valueAtPercentile(double percentile) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return i == counts.length - 1 ? max : Math.min(upperBound(i), max); // top bucket is open-ended
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d mean=%.1f p50=%d p99=%d p999=%d max=%d", count, getMean(),
+                    valueAtPercentile(50), valueAtPercentile(99), valueAtPercentile(99.9), max);
+        }
+    }
+}
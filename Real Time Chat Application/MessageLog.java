@@ -0,0 +1,479 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.*;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only message log for one room, split into fixed-size segments that are written
+ * through memory-mapped files.
+ *
+ * Layout of a room directory:
+ *   <baseSeq>.log  records: [int bodyLength][int crc32(body)][body]; a zero length marks the end
+ *                  body: [long seq][long epochMillis][from][room][to][text], strings as [int len][utf8]
+ *   <baseSeq>.idx  sparse index: [int relativeSeq][int position][long epochMillis] every
+ *                  indexInterval records, plus one for the last record when the segment is sealed
+ *
+ * Appends only copy into the mapping; a shared flusher thread forces dirty logs to disk on a
+ * short interval (group commit), or sooner once enough records are waiting. On restart only
+ * the newest segment is scanned, and only from its last index entry.
+ */
+public class MessageLog implements AutoCloseable {
+
+    /** Tuning for a log; the defaults suit a demo-sized deployment. */
+    public static final class Config {
+        public final int segmentBytes;
+        public final int indexInterval;        // one index entry every N records
+        public final long flushIntervalMillis; // group-commit window
+        public final int flushEveryRecords;    // force early once this many records are unflushed
+        public final int retainSegments;       // oldest segments beyond this count are deleted
+        public final long retainMillis;        // sealed segments whose newest message is older are deleted; 0 = keep
+
+        public Config(int segmentBytes, int indexInterval, long flushIntervalMillis,
+                      int flushEveryRecords, int retainSegments, long retainMillis) {
+            if (segmentBytes < 4096) throw new IllegalArgumentException("segmentBytes >= 4096");
+            if (indexInterval <= 0) throw new IllegalArgumentException("indexInterval > 0");
+            if (flushIntervalMillis <= 0) throw new IllegalArgumentException("flushIntervalMillis > 0");
+            if (flushEveryRecords <= 0) throw new IllegalArgumentException("flushEveryRecords > 0");
+            if (retainSegments < 1) throw new IllegalArgumentException("retainSegments >= 1");
+            if (retainMillis < 0) throw new IllegalArgumentException("retainMillis >= 0");
+            this.segmentBytes = segmentBytes;
+            this.indexInterval = indexInterval;
+            this.flushIntervalMillis = flushIntervalMillis;
+            this.flushEveryRecords = flushEveryRecords;
+            this.retainSegments = retainSegments;
+            this.retainMillis = retainMillis;
+        }
+
+        public static Config defaults() {
+            return new Config(16 << 20, 64, 50, 1024, 64, TimeUnit.DAYS.toMillis(30));
+        }
+    }
+
+    private static final int HEADER = 8;
+    private static final int INDEX_ENTRY = 16;
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "chat-log-flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Path dir;
+    private final Config config;
+    private final Logger logger = Logger.getLogger(MessageLog.class.getName());
+    private final NavigableMap<Long, Segment> segments = new TreeMap<>();
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    private final ScheduledFuture<?> flushTask;
+    private volatile Segment active;
+    private volatile long nextSeq;
+    private final AtomicLong durableSeq = new AtomicLong();
+    private boolean closed = false;
+
+    private MessageLog(Path dir, Config config) throws IOException {
+        this.dir = dir;
+        this.config = config;
+        Files.createDirectories(dir);
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(p -> p.getFileName().toString())
+                 .filter(n -> n.endsWith(".log"))
+                 .forEach(n -> {
+                     long base = Long.parseLong(n.substring(0, n.length() - 4));
+                     segments.put(base, new Segment(dir, base));
+                 });
+        }
+        if (segments.isEmpty()) {
+            segments.put(0L, new Segment(dir, 0L));
+        }
+        active = segments.lastEntry().getValue();
+        active.open(config.segmentBytes, true);
+        nextSeq = active.baseSeq + active.count;
+        durableSeq.set(nextSeq);
+        flushTask = FLUSHER.scheduleWithFixedDelay(this::flushIfDirty,
+                config.flushIntervalMillis, config.flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static MessageLog open(Path dir, Config config) throws IOException {
+        return new MessageLog(dir, Objects.requireNonNull(config));
+    }
+
+    /**
+     * Appends the message under its room sequence (or the next free one if it has none yet)
+     * and returns that sequence. A sequence that skips ahead starts a new segment, so a gap
+     * left by a failed append never shifts the numbering of later records.
+     */
+    public synchronized long append(ChatApp.Message m) throws IOException {
+        if (closed) throw new IOException("Log closed: " + dir);
+        long seq = m.getSequence() >= 0 ? m.getSequence() : nextSeq;
+        if (seq < nextSeq) throw new IOException("Out-of-order append: " + seq + " < " + nextSeq);
+        byte[] from = utf8(m.getFrom()), room = utf8(m.getToRoom()), to = utf8(m.getToUser()), text = utf8(m.getText());
+        int body = 8 + 8 + 16 + len(from) + len(room) + len(to) + len(text);
+        if (HEADER + body + 4 > config.segmentBytes) {
+            throw new IOException("Message too large for segment: " + body + " bytes");
+        }
+        if (seq > nextSeq || active.writePos + HEADER + body + 4 > active.limit()) {
+            roll(seq);
+        }
+        Segment s = active;
+        ByteBuffer buf = s.map.duplicate();
+        int pos = s.writePos;
+        buf.position(pos + HEADER);
+        buf.putLong(seq).putLong(m.getEpochMillis());
+        putString(buf, from);
+        putString(buf, room);
+        putString(buf, to);
+        putString(buf, text);
+        s.map.putInt(pos + 4, crc(s.map, pos + HEADER, body));
+        s.map.putInt(pos, body); // length goes last: a torn record reads as the end of the log
+        s.writePos = pos + HEADER + body;
+        if (s.count % config.indexInterval == 0) {
+            s.addIndex(s.count, pos, m.getEpochMillis(), true);
+        }
+        s.lastPos = pos;
+        s.lastMillis = m.getEpochMillis();
+        s.count++;
+        nextSeq = seq + 1;
+        if (nextSeq - durableSeq.get() >= config.flushEveryRecords && flushQueued.compareAndSet(false, true)) {
+            FLUSHER.execute(this::flushIfDirty);
+        }
+        return seq;
+    }
+
+    /** Up to 'max' messages starting at 'fromSeq', using the sparse index to find the start. */
+    public synchronized List<ChatApp.Message> read(long fromSeq, int max) throws IOException {
+        if (closed) throw new IOException("Log closed: " + dir);
+        List<ChatApp.Message> out = new ArrayList<>(Math.max(0, Math.min(max, 1024)));
+        long seq = Math.max(fromSeq, firstSeq());
+        Map.Entry<Long, Segment> e = segments.floorEntry(seq);
+        while (e != null && out.size() < max && seq < nextSeq) {
+            Segment s = e.getValue();
+            s.open(config.segmentBytes, s == active);
+            s.readInto(seq, max - out.size(), out);
+            seq = s.baseSeq + s.count;
+            e = segments.higherEntry(e.getKey());
+        }
+        return out;
+    }
+
+    /** The newest 'n' messages, oldest first. Touches only the segments that hold them. */
+    public synchronized List<ChatApp.Message> tail(int n) throws IOException {
+        return read(Math.max(firstSeq(), nextSeq - n), n);
+    }
+
+    public synchronized long firstSeq() { return segments.firstKey(); }
+    public long nextSeq() { return nextSeq; }
+    public long durableSeq() { return durableSeq.get(); }
+    public synchronized int segmentCount() { return segments.size(); }
+
+    /** Forces everything appended so far to disk. */
+    public void flush() throws IOException {
+        Segment s;
+        long upTo;
+        synchronized (this) {
+            if (closed) return;
+            s = active;
+            upTo = nextSeq;
+        }
+        // outside the lock so posters are not stalled behind the disk
+        s.force();
+        durableSeq.accumulateAndGet(upTo, Math::max); // a concurrent flush may already be further
+    }
+
+    private void flushIfDirty() {
+        flushQueued.set(false);
+        if (durableSeq.get() >= nextSeq) return;
+        try {
+            flush();
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "Group commit failed for " + dir, e);
+        }
+    }
+
+    private void roll(long base) throws IOException {
+        Segment old = active;
+        old.force();
+        old.seal();
+        Segment s = new Segment(dir, base);
+        s.open(config.segmentBytes, true);
+        segments.put(base, s);
+        active = s;
+        enforceRetention();
+    }
+
+    // Whole sealed segments are the unit of retention; the active segment is never removed.
+    // Age is that of the segment's newest message as recorded in its index, not the file's
+    // mtime, which writes through the mapping do not reliably update.
+    private void enforceRetention() {
+        long cutoff = config.retainMillis == 0 ? Long.MIN_VALUE : System.currentTimeMillis() - config.retainMillis;
+        while (segments.size() > 1) {
+            Segment oldest = segments.firstEntry().getValue();
+            boolean expired = segments.size() > config.retainSegments || oldest.lastMessageMillis() < cutoff;
+            if (!expired) break;
+            segments.pollFirstEntry();
+            oldest.delete();
+            logger.info("Retention removed segment " + oldest.logPath);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            flushTask.cancel(false);
+            for (Segment s : segments.values()) s.close();
+        }
+    }
+
+    private static byte[] utf8(String s) { return s == null ? null : s.getBytes(StandardCharsets.UTF_8); }
+    private static int len(byte[] b) { return b == null ? 0 : b.length; }
+
+    private static void putString(ByteBuffer buf, byte[] b) {
+        if (b == null) {
+            buf.putInt(-1);
+        } else {
+            buf.putInt(b.length).put(b);
+        }
+    }
+
+    private static String getString(ByteBuffer buf) {
+        int n = buf.getInt();
+        if (n < 0) return null;
+        byte[] b = new byte[n];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(ByteBuffer map, int from, int length) {
+        ByteBuffer body = map.duplicate();
+        body.limit(from + length).position(from);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    /** One .log/.idx pair. Mapped lazily: sealed segments cost nothing until someone reads them. */
+    private static final class Segment {
+        final long baseSeq;
+        final Path logPath;
+        final Path indexPath;
+        FileChannel channel;
+        volatile FileChannel indexChannel; // also read by the flusher outside the log lock
+        volatile MappedByteBuffer map;
+        int count;
+        int writePos;
+        int lastPos = -1;     // position of the newest record, -1 if none
+        long lastMillis;      // its timestamp
+        int[] indexRel = new int[16];
+        int[] indexPos = new int[16];
+        long[] indexMillis = new long[16];
+        int indexSize;
+        boolean recovered;
+
+        Segment(Path dir, long baseSeq) {
+            this.baseSeq = baseSeq;
+            this.logPath = dir.resolve(String.format("%020d.log", baseSeq));
+            this.indexPath = dir.resolve(String.format("%020d.idx", baseSeq));
+        }
+
+        int limit() { return map.capacity(); }
+
+        void open(int segmentBytes, boolean writable) throws IOException {
+            if (map != null) return;
+            if (writable) {
+                channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                map = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentBytes, channel.size()));
+                indexChannel = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } else {
+                channel = FileChannel.open(logPath, StandardOpenOption.READ);
+                map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            recover(writable);
+        }
+
+        // Loads the sparse index, then CRC-checks every record from the start of the segment.
+        // An index entry is kept only if the records before it chain up to it, so a torn
+        // record is never skipped just because a later entry still points at a valid one.
+        private void recover(boolean writable) throws IOException {
+            if (recovered) return;
+            recovered = true;
+            loadIndex();
+            int pos = 0;
+            int rel = 0;
+            int verified = 0;
+            for (int i = 0; i < indexSize; i++) {
+                while (rel < indexRel[i] && validRecordAt(pos, baseSeq + rel)) {
+                    lastPos = pos;
+                    pos += HEADER + map.getInt(pos);
+                    rel++;
+                }
+                if (rel != indexRel[i] || pos != indexPos[i]) break;
+                verified = i + 1;
+            }
+            indexSize = verified; // entries past a torn record outlived their data
+            while (validRecordAt(pos, baseSeq + rel)) {
+                lastPos = pos;
+                pos += HEADER + map.getInt(pos);
+                rel++;
+            }
+            count = rel;
+            writePos = pos;
+            if (lastPos >= 0) lastMillis = map.getLong(lastPos + HEADER + 8);
+            if (writable) {
+                // index entries past the recovered end are stale; zero the tail so a stale
+                // record can never be mistaken for a live one after we append over it
+                rebuildIndexTail();
+                for (int i = pos; i + 4 <= map.capacity() && map.getInt(i) != 0; ) {
+                    int next = Math.min(map.capacity(), i + HEADER + Math.max(0, map.getInt(i)));
+                    for (int j = i; j < next; j++) map.put(j, (byte) 0);
+                    i = next;
+                }
+            }
+        }
+
+        private boolean validRecordAt(int pos, long expectedSeq) {
+            if (pos < 0 || pos + HEADER + 8 > map.capacity()) return false;
+            int body = map.getInt(pos);
+            if (body < 32 || pos + HEADER + body > map.capacity()) return false;
+            if (map.getInt(pos + 4) != crc(map, pos + HEADER, body)) return false;
+            return map.getLong(pos + HEADER) == expectedSeq;
+        }
+
+        private void loadIndex() throws IOException {
+            if (!Files.exists(indexPath)) return;
+            byte[] raw = Files.readAllBytes(indexPath);
+            ByteBuffer b = ByteBuffer.wrap(raw);
+            while (b.remaining() >= INDEX_ENTRY) {
+                addIndex(b.getInt(), b.getInt(), b.getLong(), false);
+            }
+        }
+
+        private void rebuildIndexTail() throws IOException {
+            while (indexSize > 0 && indexRel[indexSize - 1] >= count) indexSize--;
+            indexChannel.truncate((long) indexSize * INDEX_ENTRY);
+            indexChannel.position((long) indexSize * INDEX_ENTRY);
+        }
+
+        void addIndex(int rel, int pos, long epochMillis, boolean persist) throws IOException {
+            if (indexSize == indexRel.length) {
+                indexRel = Arrays.copyOf(indexRel, indexSize * 2);
+                indexPos = Arrays.copyOf(indexPos, indexSize * 2);
+                indexMillis = Arrays.copyOf(indexMillis, indexSize * 2);
+            }
+            indexRel[indexSize] = rel;
+            indexPos[indexSize] = pos;
+            indexMillis[indexSize] = epochMillis;
+            indexSize++;
+            if (persist) {
+                ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY).putInt(rel).putInt(pos).putLong(epochMillis);
+                entry.flip();
+                while (entry.hasRemaining()) indexChannel.write(entry);
+            }
+        }
+
+        // Seeks with the sparse index (binary search), then scans at most indexInterval records
+        void readInto(long fromSeq, int max, List<ChatApp.Message> out) {
+            int target = (int) Math.max(0, fromSeq - baseSeq);
+            int lo = 0, hi = indexSize - 1, pos = 0, rel = 0;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (indexRel[mid] <= target) {
+                    pos = indexPos[mid];
+                    rel = indexRel[mid];
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            ByteBuffer buf = map.duplicate();
+            int added = 0;
+            while (rel < count && added < max) {
+                int body = map.getInt(pos);
+                if (rel >= target) {
+                    buf.limit(pos + HEADER + body).position(pos + HEADER);
+                    long seq = buf.getLong();
+                    long ts = buf.getLong();
+                    String from = getString(buf), room = getString(buf), to = getString(buf), text = getString(buf);
+                    ChatApp.Message m = new ChatApp.Message(from, room, to, text, ts);
+                    m.sequence = seq;
+                    out.add(m);
+                    added++;
+                    buf.limit(buf.capacity());
+                }
+                pos += HEADER + body;
+                rel++;
+            }
+        }
+
+        void force() throws IOException {
+            MappedByteBuffer m = map;
+            FileChannel idx = indexChannel;
+            if (m == null || m.isReadOnly()) return;
+            m.force();
+            if (idx != null) {
+                try {
+                    idx.force(false);
+                } catch (ClosedChannelException e) {
+                    // sealed by a concurrent roll, which forced it first
+                }
+            }
+        }
+
+        // Sealed segments stay mapped for reads; the writable index channel is no longer needed.
+        // The last record gets an index entry first, so retention can date the segment from it.
+        void seal() throws IOException {
+            if (indexChannel != null) {
+                if (lastPos >= 0 && (indexSize == 0 || indexRel[indexSize - 1] != count - 1)) {
+                    addIndex(count - 1, lastPos, lastMillis, true);
+                    indexChannel.force(false);
+                }
+                indexChannel.close();
+                indexChannel = null;
+            }
+        }
+
+        // Timestamp of the newest message, from the index's last entry; segments never opened
+        // in this process are read from the .idx file. A segment with no records reads as
+        // expired, one whose index cannot be read as brand new.
+        long lastMessageMillis() {
+            if (lastPos >= 0) return lastMillis;
+            if (recovered) return indexSize > 0 ? indexMillis[indexSize - 1] : Long.MIN_VALUE; // no records
+            try (FileChannel idx = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+                long at = idx.size() - idx.size() % INDEX_ENTRY - INDEX_ENTRY;
+                if (at < 0) return Long.MAX_VALUE;
+                ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY);
+                while (entry.hasRemaining()) {
+                    if (idx.read(entry, at + entry.position()) < 0) return Long.MAX_VALUE;
+                }
+                return entry.getLong(8);
+            } catch (IOException e) {
+                return Long.MAX_VALUE;
+            }
+        }
+
+        void close() throws IOException {
+            if (indexChannel != null) indexChannel.close();
+            if (channel != null) channel.close();
+            map = null;
+        }
+
+        void delete() {
+            try {
+                close();
+                Files.deleteIfExists(logPath);
+                Files.deleteIfExists(indexPath);
+            } catch (IOException e) {
+                Logger.getLogger(MessageLog.class.getName()).log(Level.WARNING, "Could not delete " + logPath, e);
+            }
+        }
+    }
+}
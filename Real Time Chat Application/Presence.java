@@ -0,0 +1,147 @@
+import java.util.*;
+
+/**
+ * Who is in a room, kept as an immutable member array sorted by username. Joins and leaves
+ * copy the array once (binary search + arraycopy) under the writer lock; readers take the
+ * current Snapshot with one volatile read and can hold it as long as they like.
+ *
+ * The Snapshot is what fan-out captures at post time, what getActiveUsers() returns (as a
+ * sorted Set view, no copy) and what answers count and emptiness checks in O(1).
+ */
+public final class Presence {
+
+    /** Immutable membership at one point in time. */
+    public static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new ChatApp.User[0]);
+
+        private final ChatApp.User[] members; // sorted by username, never mutated
+        private final SortedSet<String> names;
+
+        private Snapshot(ChatApp.User[] members) {
+            this.members = members;
+            this.names = new NameView(members);
+        }
+
+        public int size() { return members.length; }
+        public boolean isEmpty() { return members.length == 0; }
+        public SortedSet<String> names() { return names; }
+
+        public ChatApp.User find(String username) {
+            int i = indexOf(members, username);
+            return i >= 0 ? members[i] : null;
+        }
+
+        // Callers must not write to it
+        ChatApp.User[] members() { return members; }
+    }
+
+    private volatile Snapshot current = Snapshot.EMPTY;
+
+    public Snapshot snapshot() { return current; }
+    public int size() { return current.size(); }
+
+    // Returns true if the name is new to the room; a second session under the same name replaces the first
+    public synchronized boolean add(ChatApp.User user) {
+        ChatApp.User[] old = current.members;
+        int i = indexOf(old, user.getUsername());
+        if (i >= 0) {
+            if (old[i] != user) {
+                ChatApp.User[] next = old.clone();
+                next[i] = user;
+                current = new Snapshot(next);
+            }
+            return false;
+        }
+        int at = -i - 1;
+        ChatApp.User[] next = new ChatApp.User[old.length + 1];
+        System.arraycopy(old, 0, next, 0, at);
+        next[at] = user;
+        System.arraycopy(old, at, next, at + 1, old.length - at);
+        current = new Snapshot(next);
+        return true;
+    }
+
+    // Returns true if the user was present
+    public synchronized boolean remove(ChatApp.User user) {
+        ChatApp.User[] old = current.members;
+        int i = indexOf(old, user.getUsername());
+        if (i < 0 || old[i] != user) return false;
+        ChatApp.User[] next = new ChatApp.User[old.length - 1];
+        System.arraycopy(old, 0, next, 0, i);
+        System.arraycopy(old, i + 1, next, i, old.length - i - 1);
+        current = new Snapshot(next);
+        return true;
+    }
+
+    private static int indexOf(ChatApp.User[] sorted, String username) {
+        int lo = 0, hi = sorted.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = sorted[mid].getUsername().compareTo(username);
+            if (c < 0) lo = mid + 1;
+            else if (c > 0) hi = mid - 1;
+            else return mid;
+        }
+        return -(lo + 1);
+    }
+
+    /** Read-only sorted set of the usernames in a member array. */
+    private static final class NameView extends AbstractSet<String> implements SortedSet<String> {
+        private final ChatApp.User[] members;
+        private final int from;
+        private final int to;
+
+        NameView(ChatApp.User[] members) { this(members, 0, members.length); }
+
+        private NameView(ChatApp.User[] members, int from, int to) {
+            this.members = members;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override public int size() { return to - from; }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof String)) return false;
+            int i = indexOf(members, (String) o);
+            return i >= from && i < to;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                int next = from;
+                @Override public boolean hasNext() { return next < to; }
+                @Override
+                public String next() {
+                    if (next >= to) throw new NoSuchElementException();
+                    return members[next++].getUsername();
+                }
+            };
+        }
+
+        @Override public Comparator<? super String> comparator() { return null; }
+
+        private int bound(String name) {
+            int i = indexOf(members, name);
+            return Math.min(to, Math.max(from, i >= 0 ? i : -i - 1));
+        }
+
+        @Override public SortedSet<String> subSet(String a, String b) { return new NameView(members, bound(a), Math.max(bound(a), bound(b))); }
+        @Override public SortedSet<String> headSet(String b) { return new NameView(members, from, bound(b)); }
+        @Override public SortedSet<String> tailSet(String a) { return new NameView(members, bound(a), to); }
+
+        @Override
+        public String first() {
+            if (from == to) throw new NoSuchElementException();
+            return members[from].getUsername();
+        }
+
+        @Override
+        public String last() {
+            if (from == to) throw new NoSuchElementException();
+            return members[to - 1].getUsername();
+        }
+    }
+}
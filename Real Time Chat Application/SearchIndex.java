@@ -0,0 +1,412 @@
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.LongFunction;
+import java.util.function.LongSupplier;
+
+/**
+ * Full-text index over one room's history. Words are lowercased runs of letters and digits; a
+ * query matches the messages that contain all of its terms, where a term ending in '*' matches
+ * any word with that prefix, optionally narrowed to one sender and a time range.
+ *
+ * Messages are grouped into segments of SEGMENT_DOCS consecutive sequences. The newest segment
+ * is a sorted term map that ChatRoom adds to as messages go out; once the room has moved on it
+ * is sealed into flat arrays (term characters, postings as 16-bit offsets) and never changes
+ * again. A search walks segments in sequence order and intersects per-segment bitsets, so a
+ * page of hits costs a few segment scans however large the room is. Only the newest
+ * maxSegments segments are kept, and segments the history can no longer return are dropped.
+ */
+public final class SearchIndex {
+    public static final int SEGMENT_DOCS = 4096;     // doc offsets fit in a char
+    public static final int DEFAULT_MAX_SEGMENTS = 256;
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    public static final int MAX_PAGE_SIZE = 1000;
+    static final int MAX_TERM_LENGTH = 32;           // longer words are indexed by their first 32 chars
+    private static final int WORDS = SEGMENT_DOCS / 64;
+    private static final int SEAL_AFTER = 64;        // docs the new segment takes before the previous one is sealed
+    private static final int NO_SUCH_SENDER = -2;    // Query.from() a name nobody has posted under
+
+    private final int maxSegments;
+    private final LongSupplier horizon;              // oldest sequence the history can still return
+    private volatile List<Sealed> sealed = Collections.emptyList(); // oldest first, replaced whole
+    private Open sealing;                            // previous segment, still taking late arrivals
+    private Open active;                             // both guarded by this
+    private long indexed;
+
+    public SearchIndex(int maxSegments, LongSupplier horizon) {
+        if (maxSegments <= 0) throw new IllegalArgumentException("maxSegments > 0");
+        this.maxSegments = maxSegments;
+        this.horizon = Objects.requireNonNull(horizon);
+    }
+
+    /** What to look for; build with of() and narrow with the other methods. */
+    public static final class Query {
+        final String[] terms;
+        final boolean[] prefix;
+        int fromId = ChatApp.Symbols.NONE;
+        long sinceMillis = Long.MIN_VALUE;
+        long untilMillis = Long.MAX_VALUE;
+        long after = -1;
+        int limit = DEFAULT_PAGE_SIZE;
+
+        private Query(List<String> terms, List<Boolean> prefix) {
+            this.terms = terms.toArray(new String[0]);
+            this.prefix = new boolean[terms.size()];
+            for (int i = 0; i < this.prefix.length; i++) this.prefix[i] = prefix.get(i);
+        }
+
+        // "deploy fail*" -> messages with the word deploy and a word starting with fail.
+        // An empty text matches everything, which with from() lists one sender's messages.
+        public static Query of(String text) {
+            List<String> terms = new ArrayList<>();
+            List<Boolean> prefix = new ArrayList<>();
+            for (String word : text.trim().split("\\s+")) {
+                boolean wildcard = word.endsWith("*");
+                List<String> tokens = tokenize(word);
+                for (int i = 0; i < tokens.size(); i++) {
+                    terms.add(tokens.get(i));
+                    prefix.add(wildcard && i == tokens.size() - 1);
+                }
+            }
+            return new Query(terms, prefix);
+        }
+
+        // Looked up, not interned: arbitrary search input must not grow the symbol table
+        public Query from(String username) {
+            int id = ChatApp.Symbols.lookup(Objects.requireNonNull(username));
+            this.fromId = id == ChatApp.Symbols.NONE ? NO_SUCH_SENDER : id;
+            return this;
+        }
+
+        // Messages stamped at or after 'since' and before 'until'; either may be null
+        public Query between(LocalDateTime since, LocalDateTime until) {
+            this.sinceMillis = since == null ? Long.MIN_VALUE : ChatApp.Message.toEpochMillis(since);
+            this.untilMillis = until == null ? Long.MAX_VALUE : ChatApp.Message.toEpochMillis(until) - 1;
+            return this;
+        }
+
+        // Pagination cursor: only messages with a sequence greater than 'seq'
+        public Query after(long seq) {
+            this.after = seq;
+            return this;
+        }
+
+        public Query limit(int limit) {
+            if (limit <= 0 || limit > MAX_PAGE_SIZE) throw new IllegalArgumentException("0 < limit <= " + MAX_PAGE_SIZE);
+            this.limit = limit;
+            return this;
+        }
+    }
+
+    /** One page of hits in sequence order; pass nextAfter to Query.after() for the next page. */
+    public static final class Page {
+        public final List<ChatApp.Message> messages;
+        public final long nextAfter; // -1 when there are no more hits
+
+        Page(List<ChatApp.Message> messages, long nextAfter) {
+            this.messages = Collections.unmodifiableList(messages);
+            this.nextAfter = nextAfter;
+        }
+
+        public boolean hasMore() { return nextAfter >= 0; }
+    }
+
+    // Called from the room's delivery shard, so adds arrive in nearly sequence order;
+    // a message for a segment that has already been sealed is too late and is skipped.
+    public synchronized void add(ChatApp.Message m) {
+        long seq = m.getSequence();
+        if (seq < 0) return;
+        long base = seq - seq % SEGMENT_DOCS;
+        Open target;
+        if (active == null || base > active.base) {
+            if (sealing != null) seal(sealing);
+            sealing = active;
+            target = active = new Open(base);
+        } else if (base == active.base) {
+            target = active;
+        } else if (sealing != null && base == sealing.base) {
+            target = sealing;
+        } else {
+            return;
+        }
+        target.add((int) (seq - base), m);
+        indexed++;
+        if (sealing != null && active.docs >= SEAL_AFTER) {
+            seal(sealing);
+            sealing = null;
+        }
+    }
+
+    private void seal(Open open) {
+        List<Sealed> next = new ArrayList<>(sealed.size() + 1);
+        next.addAll(sealed);
+        next.add(new Sealed(open));
+        long oldest = horizon.getAsLong();
+        int drop = 0;
+        while (drop < next.size() && (next.size() - drop > maxSegments || next.get(drop).base + SEGMENT_DOCS <= oldest)) drop++;
+        sealed = Collections.unmodifiableList(new ArrayList<>(next.subList(drop, next.size())));
+    }
+
+    // 'resolve' turns a hit's sequence back into the message; hits it cannot find are skipped
+    public Page search(Query q, LongFunction<ChatApp.Message> resolve) {
+        if (q.fromId == NO_SUCH_SENDER) return new Page(Collections.emptyList(), -1);
+        List<Sealed> frozen;
+        Open older, newest;
+        synchronized (this) {
+            frozen = sealed;
+            older = sealing;
+            newest = active;
+        }
+        List<ChatApp.Message> out = new ArrayList<>(Math.min(q.limit + 1, 64));
+        int want = q.limit + 1; // one extra tells us whether there is another page
+        for (Sealed s : frozen) {
+            if (out.size() >= want) break;
+            collect(s, q, want, out, resolve);
+        }
+        synchronized (this) { // open segments may still be taking adds
+            if (older != null && out.size() < want) collect(older, q, want, out, resolve);
+            if (newest != null && out.size() < want) collect(newest, q, want, out, resolve);
+        }
+        long nextAfter = -1;
+        if (out.size() > q.limit) {
+            out.remove(out.size() - 1);
+            nextAfter = out.get(out.size() - 1).getSequence();
+        }
+        return new Page(out, nextAfter);
+    }
+
+    private static void collect(Segment s, Query q, int want, List<ChatApp.Message> out, LongFunction<ChatApp.Message> resolve) {
+        if (s.docs == 0 || s.base + SEGMENT_DOCS <= q.after + 1) return;
+        if (s.maxMillis < q.sinceMillis || s.minMillis > q.untilMillis) return;
+        long[] bits = null;
+        for (int i = 0; i < q.terms.length; i++) {
+            long[] termBits = new long[WORDS];
+            if (!s.match(q.terms[i], q.prefix[i], termBits)) return;
+            if (bits == null) bits = termBits;
+            else if (!and(bits, termBits)) return;
+        }
+        if (bits == null) bits = s.present.clone();
+        int from = (int) Math.max(0, q.after + 1 - s.base);
+        for (int doc = nextSetBit(bits, from); doc >= 0 && out.size() < want; doc = nextSetBit(bits, doc + 1)) {
+            if (q.fromId != ChatApp.Symbols.NONE && s.fromIds[doc] != q.fromId) continue;
+            long t = s.millis[doc];
+            if (t < q.sinceMillis || t > q.untilMillis) continue;
+            ChatApp.Message m = resolve.apply(s.base + doc);
+            if (m != null) out.add(m);
+        }
+    }
+
+    private static boolean and(long[] into, long[] other) {
+        long any = 0;
+        for (int i = 0; i < into.length; i++) any |= (into[i] &= other[i]);
+        return any != 0;
+    }
+
+    private static int nextSetBit(long[] bits, int from) {
+        int w = from >>> 6;
+        if (w >= bits.length) return -1;
+        long word = bits[w] & (-1L << from);
+        while (true) {
+            if (word != 0) return (w << 6) + Long.numberOfTrailingZeros(word);
+            if (++w == bits.length) return -1;
+            word = bits[w];
+        }
+    }
+
+    public synchronized int segmentCount() {
+        return sealed.size() + (sealing != null ? 1 : 0) + (active != null ? 1 : 0);
+    }
+
+    public synchronized long indexedCount() { return indexed; }
+
+    // Lowercased runs of letters and digits, in order, duplicates kept
+    static List<String> tokenize(String text) {
+        List<String> out = new ArrayList<>();
+        StringBuilder word = new StringBuilder(MAX_TERM_LENGTH);
+        for (int i = 0, n = text.length(); i <= n; i++) {
+            char c = i < n ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (word.length() < MAX_TERM_LENGTH) word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                out.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        return out;
+    }
+
+    // ---- segments ----
+
+    private abstract static class Segment {
+        final long base;
+        int[] fromIds;
+        long[] millis;
+        final long[] present = new long[WORDS]; // offsets that hold an indexed message
+        int docs;
+        long minMillis = Long.MAX_VALUE;
+        long maxMillis = Long.MIN_VALUE;
+
+        Segment(long base) { this.base = base; }
+
+        // ORs the docs holding 'term' (or any word starting with it) into 'bits'; false if there are none
+        abstract boolean match(String term, boolean prefix, long[] bits);
+    }
+
+    /** The segment being written: a sorted term map with growable postings. */
+    private static final class Open extends Segment {
+        final TreeMap<String, Postings> terms = new TreeMap<>();
+        int limit; // highest offset used + 1
+
+        Open(long base) {
+            super(base);
+            fromIds = new int[64];
+            millis = new long[64];
+        }
+
+        void add(int doc, ChatApp.Message m) {
+            if ((present[doc >>> 6] & (1L << doc)) != 0) return;
+            if (doc >= fromIds.length) {
+                int size = Math.min(SEGMENT_DOCS, Math.max(doc + 1, fromIds.length * 2));
+                fromIds = Arrays.copyOf(fromIds, size);
+                millis = Arrays.copyOf(millis, size);
+            }
+            present[doc >>> 6] |= 1L << doc;
+            fromIds[doc] = m.getFromId();
+            millis[doc] = m.getEpochMillis();
+            minMillis = Math.min(minMillis, m.getEpochMillis());
+            maxMillis = Math.max(maxMillis, m.getEpochMillis());
+            limit = Math.max(limit, doc + 1);
+            docs++;
+            for (String term : tokenize(m.getText())) terms.computeIfAbsent(term, t -> new Postings()).add((char) doc);
+        }
+
+        @Override
+        boolean match(String term, boolean prefix, long[] bits) {
+            if (!prefix) {
+                Postings p = terms.get(term);
+                if (p == null) return false;
+                p.orInto(bits);
+                return true;
+            }
+            boolean any = false;
+            for (Postings p : terms.subMap(term, true, term + Character.MAX_VALUE, false).values()) {
+                p.orInto(bits);
+                any = true;
+            }
+            return any;
+        }
+    }
+
+    /** Sorted doc offsets for one term; a doc is added once however often the word appears. */
+    private static final class Postings {
+        char[] docs = new char[2];
+        int size;
+
+        void add(char doc) {
+            if (size > 0 && docs[size - 1] >= doc) {
+                // a late message landed behind newer ones
+                int i = Arrays.binarySearch(docs, 0, size, doc);
+                if (i >= 0) return;
+                insert(-i - 1, doc);
+                return;
+            }
+            insert(size, doc);
+        }
+
+        private void insert(int at, char doc) {
+            if (size == docs.length) docs = Arrays.copyOf(docs, size * 2);
+            System.arraycopy(docs, at, docs, at + 1, size - at);
+            docs[at] = doc;
+            size++;
+        }
+
+        void orInto(long[] bits) {
+            for (int i = 0; i < size; i++) bits[docs[i] >>> 6] |= 1L << docs[i];
+        }
+    }
+
+    /**
+     * An immutable segment. Terms are packed end to end in one char array in sorted order,
+     * with termEnd marking where each stops; term i's postings are postings[postStart[i],
+     * postStart[i + 1]). No per-term objects are kept.
+     */
+    private static final class Sealed extends Segment {
+        final char[] termChars;
+        final int[] termEnd;
+        final int[] postStart;
+        final char[] postings;
+
+        Sealed(Open open) {
+            super(open.base);
+            int n = open.terms.size(), chars = 0, total = 0;
+            for (Map.Entry<String, Postings> e : open.terms.entrySet()) {
+                chars += e.getKey().length();
+                total += e.getValue().size;
+            }
+            termChars = new char[chars];
+            termEnd = new int[n];
+            postStart = new int[n + 1];
+            postings = new char[total];
+            int i = 0, c = 0, p = 0;
+            for (Map.Entry<String, Postings> e : open.terms.entrySet()) {
+                String term = e.getKey();
+                term.getChars(0, term.length(), termChars, c);
+                termEnd[i] = c += term.length();
+                postStart[i] = p;
+                System.arraycopy(e.getValue().docs, 0, postings, p, e.getValue().size);
+                p += e.getValue().size;
+                i++;
+            }
+            postStart[n] = p;
+            fromIds = Arrays.copyOf(open.fromIds, open.limit);
+            millis = Arrays.copyOf(open.millis, open.limit);
+            System.arraycopy(open.present, 0, present, 0, WORDS);
+            docs = open.docs;
+            minMillis = open.minMillis;
+            maxMillis = open.maxMillis;
+        }
+
+        @Override
+        boolean match(String term, boolean prefix, long[] bits) {
+            int i = lowerBound(term);
+            boolean any = false;
+            for (; i < termEnd.length; i++) {
+                int start = i == 0 ? 0 : termEnd[i - 1];
+                int len = termEnd[i] - start;
+                if (prefix ? !startsWith(start, len, term) : (len != term.length() || compare(start, len, term) != 0)) break;
+                for (int k = postStart[i]; k < postStart[i + 1]; k++) bits[postings[k] >>> 6] |= 1L << postings[k];
+                any = true;
+                if (!prefix) break;
+            }
+            return any;
+        }
+
+        // First term not less than 'key'
+        private int lowerBound(String key) {
+            int lo = 0, hi = termEnd.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int start = mid == 0 ? 0 : termEnd[mid - 1];
+                if (compare(start, termEnd[mid] - start, key) < 0) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        private int compare(int start, int len, String key) {
+            int n = Math.min(len, key.length());
+            for (int k = 0; k < n; k++) {
+                int d = termChars[start + k] - key.charAt(k);
+                if (d != 0) return d;
+            }
+            return len - key.length();
+        }
+
+        private boolean startsWith(int start, int len, String prefix) {
+            if (len < prefix.length()) return false;
+            for (int k = 0; k < prefix.length(); k++) {
+                if (termChars[start + k] != prefix.charAt(k)) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,372 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * HistoryStore in two tiers, for rooms that keep far more history than anyone replays.
+ * The newest hotCapacity messages live in a RingHistoryStore as ordinary objects, so join
+ * replay and reconnect catch-up cost what they always did. Behind them every BLOCK_SIZE
+ * messages are packed into an immutable block: a sender column (indexes into a per-block
+ * dictionary of Symbols ids), a timestamp column (zigzag varint deltas) and a text column
+ * (lengths, then the UTF-8 bytes), deflated together. A block is inflated only when a read
+ * reaches back that far, and the last one inflated is kept for the next read.
+ *
+ * Packing runs on a shared background thread, not on the posting thread: the append that
+ * crosses the threshold only hands the store to the packer. The hot ring has a few blocks of
+ * slack for the packer to catch up in; a poster packs inline only if the packer falls that far
+ * behind, so a flood slows down instead of lapping unpacked history.
+ *
+ * Usage:
+ *   manager.setHistoryStoreFactory(TieredHistoryStore.factory(1000, 100_000));
+ */
+public class TieredHistoryStore implements ChatApp.HistoryStore {
+    public static final int BLOCK_SIZE = 256;
+    private static final int SLACK_BLOCKS = 4;  // hot ring room beyond hotCapacity for unpacked blocks
+    private static final ExecutorService PACKER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "chat-history-packer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final int hotCapacity;
+    private final int maxMessages;
+    private final ChatApp.RingHistoryStore hot; // hotCapacity plus SLACK_BLOCKS waiting to be packed
+    private final AtomicBoolean packing = new AtomicBoolean();
+    private volatile Block[] blocks;            // oldest first, replaced whole by the packer
+    private volatile long coldEnd;              // first sequence not yet packed
+    private long coldCount;                     // messages in blocks; written by the packer only
+    private volatile Decoded lastDecoded;
+
+    public TieredHistoryStore(int hotCapacity, int maxMessages) {
+        this(hotCapacity, maxMessages, new Block[0], 0, Collections.emptyList());
+    }
+
+    // 'tail' holds the messages from hotStart on, already numbered; they go back in the hot tier
+    private TieredHistoryStore(int hotCapacity, int maxMessages, Block[] blocks, long hotStart, List<ChatApp.Message> tail) {
+        if (hotCapacity <= 0) throw new IllegalArgumentException("hotCapacity > 0");
+        if (maxMessages < hotCapacity) throw new IllegalArgumentException("maxMessages >= hotCapacity");
+        this.hotCapacity = hotCapacity;
+        this.maxMessages = maxMessages;
+        this.hot = new ChatApp.RingHistoryStore(hotCapacity + SLACK_BLOCKS * BLOCK_SIZE, hotStart);
+        for (ChatApp.Message m : tail) hot.append(m);
+        this.blocks = blocks;
+        this.coldEnd = hotStart;
+        for (Block b : blocks) coldCount += b.count;
+    }
+
+    public static Function<String, ChatApp.HistoryStore> factory(int hotCapacity, int maxMessages) {
+        return roomId -> new TieredHistoryStore(hotCapacity, maxMessages);
+    }
+
+    @Override
+    public long append(ChatApp.Message message) {
+        long seq = hot.append(message);
+        long unpacked = seq + 1 - coldEnd;
+        if (unpacked >= hotCapacity + BLOCK_SIZE && packing.compareAndSet(false, true)) {
+            if (unpacked >= hotCapacity + (SLACK_BLOCKS - 1) * BLOCK_SIZE) spill(); // the packer is behind
+            else PACKER.execute(this::spill);
+        }
+        return seq;
+    }
+
+    // Packs the oldest hot blocks; the caller holds 'packing'. If a slot's writer has not
+    // landed yet it stops, and a later append hands the store over again.
+    private void spill() {
+        try {
+            while (hot.nextSequence() - coldEnd >= hotCapacity + BLOCK_SIZE) {
+                long from = Math.max(coldEnd, hot.firstSequence()); // anything lapped first is lost
+                ChatApp.Message[] batch = new ChatApp.Message[BLOCK_SIZE];
+                for (int i = 0; i < BLOCK_SIZE; i++) {
+                    batch[i] = hot.get(from + i);
+                    if (batch[i] == null) return;
+                }
+                addBlock(Block.pack(batch, BLOCK_SIZE));
+            }
+        } finally {
+            packing.set(false);
+        }
+    }
+
+    private void addBlock(Block b) {
+        Block[] old = blocks;
+        int drop = 0;
+        coldCount += b.count;
+        while (drop < old.length && coldCount > maxMessages - hotCapacity) coldCount -= old[drop++].count;
+        Block[] next = Arrays.copyOfRange(old, drop, old.length + 1);
+        next[next.length - 1] = b;
+        blocks = next;
+        coldEnd = b.end();
+    }
+
+    @Override
+    public List<ChatApp.Message> snapshot() { return readFrom(firstSequence()); }
+
+    @Override
+    public List<ChatApp.Message> lastN(int n) {
+        if (n <= 0) return Collections.emptyList();
+        return fromSequence(hot.nextSequence() - n);
+    }
+
+    // Walks back from the newest block while it still has messages at or after 'from'
+    @Override
+    public List<ChatApp.Message> since(LocalDateTime from) {
+        long fromMillis = ChatApp.Message.toEpochMillis(from);
+        List<ChatApp.Message> recent = hot.snapshot();
+        if (!recent.isEmpty() && recent.get(0).getEpochMillis() < fromMillis) return hot.since(from);
+        Block[] cold = blocks;
+        int i = cold.length;
+        while (i > 0 && cold[i - 1].maxMillis >= fromMillis) i--;
+        List<ChatApp.Message> all = readFrom(i < cold.length ? cold[i].base : hot.firstSequence());
+        int k = all.size();
+        while (k > 0 && all.get(k - 1).getEpochMillis() >= fromMillis) k--;
+        return all.subList(k, all.size());
+    }
+
+    @Override
+    public List<ChatApp.Message> fromSequence(long seq) {
+        long from = Math.max(seq, firstSequence());
+        return from >= hot.firstSequence() ? hot.fromSequence(from) : readFrom(from);
+    }
+
+    @Override
+    public ChatApp.Message get(long seq) {
+        if (seq < firstSequence()) return null;
+        ChatApp.Message m = hot.get(seq);
+        if (m != null) return m;
+        Block[] cold = blocks;
+        int i = blockIndex(cold, seq);
+        return i < cold.length && seq >= cold[i].base ? decode(cold[i])[(int) (seq - cold[i].base)] : null;
+    }
+
+    // The hot ring's slack can still hold messages older than the oldest kept block; those are
+    // past retention and not returned
+    @Override
+    public long firstSequence() {
+        Block[] cold = blocks;
+        return cold.length > 0 ? cold[0].base : hot.firstSequence();
+    }
+
+    @Override
+    public long nextSequence() { return hot.nextSequence(); }
+
+    @Override
+    public int size() { return (int) (nextSequence() - firstSequence()); }
+
+    @Override
+    public int capacity() { return maxMessages; }
+
+    // Only while the store is empty
+    @Override
+    public boolean continueFrom(long seq) {
+        if (blocks.length > 0 || !hot.continueFrom(seq)) return false;
+        coldEnd = seq;
+        return true;
+    }
+
+    public int blockCount() { return blocks.length; }
+
+    // First sequence that is not yet in a block
+    long packedUpTo() { return coldEnd; }
+
+    // Heap held by the cold tier
+    public long coldBytes() {
+        long bytes = 0;
+        for (Block b : blocks) bytes += b.bytes();
+        return bytes;
+    }
+
+    // What a parked room keeps instead of its live store: every whole block packed, at most
+    // maxMessages in all, and the last partial block left hot so that parking a room again
+    // and again does not pile up short blocks
+    TieredHistoryStore compacted() {
+        Block[] cold = blocks;
+        List<ChatApp.Message> rest = hot.fromSequence(cold.length > 0 ? cold[cold.length - 1].end() : coldEnd);
+        int whole = rest.size() - rest.size() % BLOCK_SIZE;
+        List<Block> all = new ArrayList<>(Arrays.asList(cold));
+        for (int i = 0; i < whole; i += BLOCK_SIZE) {
+            all.add(Block.pack(rest.subList(i, i + BLOCK_SIZE).toArray(new ChatApp.Message[0]), BLOCK_SIZE));
+        }
+        List<ChatApp.Message> tail = rest.subList(whole, rest.size());
+        long kept = tail.size();
+        for (Block b : all) kept += b.count;
+        int drop = 0;
+        while (drop < all.size() && kept > maxMessages) kept -= all.get(drop++).count;
+        Block[] packed = all.subList(drop, all.size()).toArray(new Block[0]);
+        return new TieredHistoryStore(hotCapacity, maxMessages, packed, nextSequence() - tail.size(), tail);
+    }
+
+    // Cold messages from 'from' onward, then the hot tier after the last block
+    private List<ChatApp.Message> readFrom(long from) {
+        Block[] cold = blocks;
+        List<ChatApp.Message> out = new ArrayList<>();
+        long next = from;
+        for (int i = blockIndex(cold, from); i < cold.length; i++) {
+            ChatApp.Message[] decoded = decode(cold[i]);
+            for (int k = (int) Math.max(0, from - cold[i].base); k < decoded.length; k++) out.add(decoded[k]);
+            next = cold[i].end();
+        }
+        out.addAll(hot.fromSequence(next));
+        return Collections.unmodifiableList(out);
+    }
+
+    // First block that ends after 'seq'
+    private static int blockIndex(Block[] cold, long seq) {
+        int lo = 0, hi = cold.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cold[mid].end() <= seq) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private ChatApp.Message[] decode(Block b) {
+        Decoded d = lastDecoded;
+        if (d != null && d.block == b) return d.messages;
+        ChatApp.Message[] messages = b.unpack();
+        lastDecoded = new Decoded(b, messages);
+        return messages;
+    }
+
+    private static final class Decoded {
+        final Block block;
+        final ChatApp.Message[] messages;
+
+        Decoded(Block block, ChatApp.Message[] messages) {
+            this.block = block;
+            this.messages = messages;
+        }
+    }
+
+    /** Consecutive messages of one room, columnar and deflated. */
+    static final class Block {
+        final long base;
+        final int count;
+        final long minMillis;
+        final long maxMillis;
+        private final int roomId;
+        private final int[] senders;  // Symbols ids; the sender column holds indexes into this
+        private final int rawLength;
+        private final byte[] data;
+
+        private Block(long base, int count, long minMillis, long maxMillis, int roomId, int[] senders, int rawLength, byte[] data) {
+            this.base = base;
+            this.count = count;
+            this.minMillis = minMillis;
+            this.maxMillis = maxMillis;
+            this.roomId = roomId;
+            this.senders = senders;
+            this.rawLength = rawLength;
+            this.data = data;
+        }
+
+        long end() { return base + count; }
+        long bytes() { return 64 + data.length + 4L * senders.length; }
+
+        // 'messages' must hold consecutive sequences
+        static Block pack(ChatApp.Message[] messages, int n) {
+            Map<Integer, Integer> dictionary = new LinkedHashMap<>();
+            ByteArrayOutputStream columns = new ByteArrayOutputStream(n * 24);
+            long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                Integer index = dictionary.computeIfAbsent(messages[i].getFromId(), id -> dictionary.size());
+                writeVarint(columns, index);
+            }
+            long previous = 0;
+            for (int i = 0; i < n; i++) {
+                long t = messages[i].getEpochMillis();
+                writeVarint(columns, zigzag(t - previous));
+                previous = t;
+                min = Math.min(min, t);
+                max = Math.max(max, t);
+            }
+            byte[][] texts = new byte[n][];
+            for (int i = 0; i < n; i++) {
+                texts[i] = messages[i].getText().getBytes(StandardCharsets.UTF_8);
+                writeVarint(columns, texts[i].length);
+            }
+            for (byte[] text : texts) columns.write(text, 0, text.length);
+
+            byte[] raw = columns.toByteArray();
+            Deflater deflater = new Deflater();
+            try {
+                deflater.setInput(raw);
+                deflater.finish();
+                ByteArrayOutputStream packed = new ByteArrayOutputStream(raw.length / 2 + 64);
+                byte[] chunk = new byte[4096];
+                while (!deflater.finished()) packed.write(chunk, 0, deflater.deflate(chunk));
+                int[] senders = new int[dictionary.size()];
+                for (Map.Entry<Integer, Integer> e : dictionary.entrySet()) senders[e.getValue()] = e.getKey();
+                return new Block(messages[0].getSequence(), n, min, max, messages[0].getToRoomId(), senders, raw.length,
+                        packed.toByteArray());
+            } finally {
+                deflater.end();
+            }
+        }
+
+        ChatApp.Message[] unpack() {
+            byte[] raw = new byte[rawLength];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data);
+                int n = 0;
+                while (n < raw.length) {
+                    int got = inflater.inflate(raw, n, raw.length - n);
+                    if (got == 0 && (inflater.finished() || inflater.needsInput())) break;
+                    n += got;
+                }
+                if (n != raw.length) throw new IllegalStateException("Truncated history block at #" + base);
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Corrupt history block at #" + base, e);
+            } finally {
+                inflater.end();
+            }
+            int[] pos = {0};
+            int[] from = new int[count];
+            long[] millis = new long[count];
+            int[] lengths = new int[count];
+            for (int i = 0; i < count; i++) from[i] = senders[(int) readVarint(raw, pos)];
+            long t = 0;
+            for (int i = 0; i < count; i++) millis[i] = t += unzigzag(readVarint(raw, pos));
+            for (int i = 0; i < count; i++) lengths[i] = (int) readVarint(raw, pos);
+            String room = ChatApp.Symbols.name(roomId);
+            ChatApp.Message[] out = new ChatApp.Message[count];
+            int at = pos[0];
+            for (int i = 0; i < count; i++) {
+                String text = new String(raw, at, lengths[i], StandardCharsets.UTF_8);
+                at += lengths[i];
+                out[i] = new ChatApp.Message(ChatApp.Symbols.name(from[i]), room, null, text, millis[i]);
+                out[i].sequence = base + i;
+            }
+            return out;
+        }
+
+        private static long zigzag(long v) { return (v << 1) ^ (v >> 63); }
+        private static long unzigzag(long v) { return (v >>> 1) ^ -(v & 1); }
+
+        private static void writeVarint(ByteArrayOutputStream out, long v) {
+            while ((v & ~0x7FL) != 0) {
+                out.write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            out.write((int) v);
+        }
+
+        private static long readVarint(byte[] in, int[] pos) {
+            long v = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = in[pos[0]++];
+                v |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return v;
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket. Holds 'burst' tokens and refills at 'permitsPerSecond'.
+ *
+ * The whole state is one long: the time at which the bucket will next be full (the GCRA form
+ * of a token bucket). Taking a token pushes that time forward by one refill interval with a
+ * single CAS; the request is refused if it would go further than 'burst' intervals past now.
+ */
+public class TokenBucket {
+
+    /** Refill rate and bucket size; shared by every bucket made from it. */
+    public static final class Limit {
+        public static final Limit UNLIMITED = new Limit(Double.POSITIVE_INFINITY, Integer.MAX_VALUE);
+
+        public final double permitsPerSecond;
+        public final int burst;
+
+        public Limit(double permitsPerSecond, int burst) {
+            if (!(permitsPerSecond > 0)) throw new IllegalArgumentException("permitsPerSecond > 0");
+            if (burst <= 0) throw new IllegalArgumentException("burst > 0");
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = burst;
+        }
+
+        public boolean isUnlimited() { return Double.isInfinite(permitsPerSecond); }
+
+        @Override
+        public String toString() {
+            return isUnlimited() ? "unlimited" : String.format("%.1f/s burst %d", permitsPerSecond, burst);
+        }
+    }
+
+    private final Limit limit;
+    private final long intervalNanos;  // time to refill one token
+    private final long capacityNanos;  // time to refill the whole bucket
+    private final AtomicLong fullAt;   // nanoTime at which the bucket is full again
+
+    public TokenBucket(Limit limit) {
+        this.limit = limit;
+        this.intervalNanos = limit.isUnlimited() ? 0 : Math.max(1, (long) (1e9 / limit.permitsPerSecond));
+        this.capacityNanos = limit.isUnlimited() ? 0 : intervalNanos * limit.burst;
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    public boolean tryAcquire() {
+        if (intervalNanos == 0) return true;
+        while (true) {
+            long now = System.nanoTime();
+            long current = fullAt.get();
+            long next = Math.max(current, now) + intervalNanos;
+            if (next - now > capacityNanos) return false;
+            if (fullAt.compareAndSet(current, next)) return true;
+        }
+    }
+
+    public Limit getLimit() { return limit; }
+}
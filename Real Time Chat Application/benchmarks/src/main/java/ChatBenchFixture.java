@@ -0,0 +1,91 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import chat.bench.ChatFixture;
+
+/** ChatFixture over the real ChatRoomManager; each instance gets its own room. */
+public class ChatBenchFixture implements ChatFixture {
+    private static final AtomicInteger ROOMS = new AtomicInteger();
+
+    private final ChatApp.ChatRoomManager manager = ChatApp.ChatRoomManager.getInstance();
+    private final LongAdder delivered = new LongAdder();
+    private final List<ChatApp.User> users = new ArrayList<>();
+    private final AtomicInteger visitors = new AtomicInteger();
+    private ChatApp.ChatRoom room;
+    private ChatApp.User poster;
+
+    @Override
+    public void open(int members, int historyCapacity) {
+        int n = ROOMS.incrementAndGet();
+        String roomId = "bench-" + n;
+        manager.setHistoryStoreFactory(id -> new ChatApp.RingHistoryStore(historyCapacity));
+        // measure the engine, not the posting limits
+        manager.setUserRateLimit(TokenBucket.Limit.UNLIMITED);
+        manager.setRoomRateLimit(TokenBucket.Limit.UNLIMITED);
+        // no held presence notice, so awaitIdle() does not wait out the window's timer
+        manager.setPresenceWindow(0);
+        room = manager.createOrGetRoom(roomId);
+        room.setReplayLimit(0);
+        for (int i = 0; i < members; i++) {
+            ChatApp.User u = new ChatApp.User("b" + n + "-u" + i, new CountingCommunicator(delivered));
+            users.add(u);
+            room.join(u);
+            if ((i & 255) == 255) awaitIdle(); // keep join notices from piling up
+        }
+        poster = users.get(0);
+        awaitIdle();
+    }
+
+    @Override
+    public void post(String text) {
+        poster.sendMessage(room, text);
+    }
+
+    @Override
+    public long delivered() { return delivered.sum(); }
+
+    @Override
+    public int members() { return users.size(); }
+
+    @Override
+    public void awaitDelivered(long target) {
+        while (delivered.sum() < target) Thread.yield();
+    }
+
+    @Override
+    public void awaitIdle() {
+        ChatApp.DeliveryEngine engine = manager.getDeliveryEngine();
+        while (engine.pendingTasks() > 0) Thread.yield();
+    }
+
+    @Override
+    public void fill(int count) {
+        for (int i = 0; i < count; i++) {
+            post("history " + i);
+            if ((i & 255) == 255) awaitIdle();
+        }
+        awaitIdle();
+    }
+
+    @Override
+    public void joinAndLeave(int replay) {
+        ChatApp.User visitor = new ChatApp.User("visitor-" + visitors.incrementAndGet(), new NoOpCommunicator());
+        long lastSeen = room.getHistoryStore().nextSequence() - replay - 1;
+        room.join(visitor, lastSeen);
+        manager.disconnect(visitor);
+    }
+
+    @Override
+    public int activeUserCount() {
+        return room.getActiveUsers().size();
+    }
+
+    @Override
+    public void close() {
+        for (ChatApp.User u : users) manager.disconnect(u);
+        awaitIdle();
+        manager.removeRoomIfEmpty(room.getRoomId());
+    }
+}
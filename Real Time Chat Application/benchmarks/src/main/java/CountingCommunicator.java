@@ -0,0 +1,18 @@
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counts room messages into a shared adder; system notices are dropped uncounted. */
+public class CountingCommunicator implements ChatApp.Communicator {
+    private final LongAdder delivered;
+
+    public CountingCommunicator(LongAdder delivered) {
+        this.delivered = delivered;
+    }
+
+    @Override public void send(String message) { delivered.increment(); }
+    @Override public void sendSystem(String message) { }
+    @Override public void sendEncoded(ByteBuffer payload) { delivered.increment(); }
+    @Override public void sendBatch(List<ByteBuffer> payloads) { delivered.add(payloads.size()); }
+    @Override public String protocolName() { return "Counting"; }
+}
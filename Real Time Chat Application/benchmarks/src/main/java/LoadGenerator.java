@@ -0,0 +1,383 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Synthetic load and soak driver for the chat engine. Builds 'rooms' rooms and 'users'
+ * simulated users, sizes rooms and picks posting rooms by a Zipf distribution (a few hot rooms,
+ * a long tail), posts at a fixed open-loop rate for the run duration and reports throughput,
+ * post-to-delivery latency percentiles, GC pauses and peak heap.
+ *
+ *   gradle :benchmarks:soak -PsoakArgs="--rooms=200 --users=20000 --rate=20000 --duration=300"
+ *
+ * Options (defaults in brackets): --rooms [100] --users [5000] --membership rooms per user [3]
+ * --rate posts/s [5000] --zipf exponent [1.1] --duration seconds [60] --warmup seconds [10]
+ * --report seconds between interval lines [10] --posters threads [2] --size message bytes [80]
+ * --history per-room capacity [1000] --churn reconnects/s [50] --limits keep the default
+ * posting limits (otherwise unlimited).
+ *
+ * Latency runs from when a post was due, not when it went out, so a poster that falls behind
+ * shows up in the percentiles instead of hiding the backlog.
+ */
+public class LoadGenerator {
+
+    static final class Options {
+        int rooms = 100;
+        int users = 5000;
+        int membership = 3;
+        double rate = 5000;
+        double zipf = 1.1;
+        int durationSeconds = 60;
+        int warmupSeconds = 10;
+        int reportSeconds = 10;
+        int posters = 2;
+        int size = 80;
+        int history = ChatApp.ChatRoom.DEFAULT_HISTORY_CAPACITY;
+        double churn = 50;
+        boolean limits;
+
+        static Options parse(String[] args) {
+            Options o = new Options();
+            for (String arg : args) {
+                if (arg.isEmpty()) continue;
+                String[] kv = arg.replaceFirst("^--", "").split("=", 2);
+                String v = kv.length > 1 ? kv[1] : "true";
+                switch (kv[0]) {
+                    case "rooms": o.rooms = Integer.parseInt(v); break;
+                    case "users": o.users = Integer.parseInt(v); break;
+                    case "membership": o.membership = Integer.parseInt(v); break;
+                    case "rate": o.rate = Double.parseDouble(v); break;
+                    case "zipf": o.zipf = Double.parseDouble(v); break;
+                    case "duration": o.durationSeconds = Integer.parseInt(v); break;
+                    case "warmup": o.warmupSeconds = Integer.parseInt(v); break;
+                    case "report": o.reportSeconds = Integer.parseInt(v); break;
+                    case "posters": o.posters = Integer.parseInt(v); break;
+                    case "size": o.size = Integer.parseInt(v); break;
+                    case "history": o.history = Integer.parseInt(v); break;
+                    case "churn": o.churn = Double.parseDouble(v); break;
+                    case "limits": o.limits = Boolean.parseBoolean(v); break;
+                    default: throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            }
+            if (o.rooms <= 0 || o.users <= 0 || o.posters <= 0 || !(o.rate > 0)) {
+                throw new IllegalArgumentException("rooms, users, posters and rate must be positive");
+            }
+            o.membership = Math.min(o.membership, o.rooms);
+            return o;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d rooms, %d users x %d rooms, %.0f posts/s (zipf %.2f), %ds + %ds warmup, %d posters, "
+                    + "%d-byte messages, history %d, %.0f reconnects/s, limits %s", rooms, users, membership, rate, zipf,
+                    durationSeconds, warmupSeconds, posters, size, history, churn, limits ? "on" : "off");
+        }
+    }
+
+    /** Ranks 0..n-1 with P(k) proportional to 1/(k+1)^s. */
+    static final class Zipf {
+        private final double[] cdf;
+
+        Zipf(int n, double s) {
+            cdf = new double[n];
+            double sum = 0;
+            for (int k = 0; k < n; k++) cdf[k] = sum += 1 / Math.pow(k + 1, s);
+            for (int k = 0; k < n; k++) cdf[k] /= sum;
+        }
+
+        int next(Random random) {
+            int i = Arrays.binarySearch(cdf, random.nextDouble());
+            return Math.min(cdf.length - 1, i >= 0 ? i : -i - 1);
+        }
+    }
+
+    /**
+     * Counts deliveries and records post-to-delivery latency. Every load message starts with
+     * '#' and its due time as 16 hex digits of System.nanoTime(), which this reads back out of
+     * the rendered payload. Messages due before the user last reconnected are history replay,
+     * counted separately so they do not read as hours of live latency.
+     */
+    static final class ProbeCommunicator implements ChatApp.Communicator {
+        private static final ChatApp.BatchConfig BATCHING = new ChatApp.BatchConfig(32, 2); // like WebSocket
+
+        private final Stats stats;
+        volatile long rejoinedAt = System.nanoTime();
+
+        ProbeCommunicator(Stats stats) { this.stats = stats; }
+
+        @Override public void send(String payload) { stats.delivered.increment(); }
+        @Override public void sendSystem(String system) { }
+        @Override public String protocolName() { return "Probe"; }
+        @Override public ChatApp.BatchConfig batchConfig() { return BATCHING; }
+
+        @Override
+        public void sendEncoded(ByteBuffer payload) {
+            probe(payload, System.nanoTime());
+        }
+
+        @Override
+        public void sendBatch(List<ByteBuffer> payloads) {
+            long now = System.nanoTime();
+            for (ByteBuffer p : payloads) probe(p, now);
+        }
+
+        private void probe(ByteBuffer payload, long now) {
+            stats.delivered.increment();
+            for (int i = payload.position(), end = payload.limit() - 16; i < end; i++) {
+                if (payload.get(i) != '#') continue;
+                long due = 0;
+                for (int k = 1; k <= 16; k++) due = (due << 4) | Character.digit(payload.get(i + k), 16);
+                if (due - rejoinedAt < 0) stats.replayed.increment();
+                else if (stats.recording) stats.latency.record(Math.max(0, now - due));
+                return;
+            }
+        }
+    }
+
+    static final class Stats {
+        final LongAdder posted = new LongAdder();
+        final LongAdder late = new LongAdder(); // posts that went out after their due time had passed by 1ms
+        final LongAdder delivered = new LongAdder();
+        final LongAdder reconnects = new LongAdder();
+        final LongAdder replayed = new LongAdder();
+        final Histogram latency = new Histogram();
+        final Histogram gcPauses = new Histogram();
+        final LongAdder gcPauseTotal = new LongAdder();
+        final AtomicLong gcPauseMax = new AtomicLong();
+        final AtomicLong peakHeap = new AtomicLong();
+        final AtomicLong peakLiveHeap = new AtomicLong(); // heap right after a collection
+        volatile boolean recording;
+    }
+
+    private final Options options;
+    private final Stats stats = new Stats();
+    private final ChatApp.ChatRoomManager manager = new ChatApp.ChatRoomManager();
+    private final List<ChatApp.ChatRoom> rooms = new ArrayList<>();
+    private final List<List<ChatApp.User>> members = new ArrayList<>(); // per room, fixed after setup
+    private final Zipf roomRank;
+    private volatile boolean running = true;
+
+    LoadGenerator(Options options) {
+        this.options = options;
+        this.roomRank = new Zipf(options.rooms, options.zipf);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        System.out.println("Load: " + options);
+        new LoadGenerator(options).run();
+    }
+
+    void run() throws InterruptedException {
+        setUp();
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < options.posters; p++) threads.add(start("load-poster-" + p, this::post));
+        if (options.churn > 0) threads.add(start("load-churn", this::churn));
+        threads.add(start("load-heap", this::sampleHeap));
+        watchGc();
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(options.warmupSeconds));
+        resetCounters();
+        stats.recording = true;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+        long nextReport = start + TimeUnit.SECONDS.toNanos(options.reportSeconds);
+        long lastPosted = 0, lastDelivered = 0, lastAt = start;
+        while (System.nanoTime() < end) {
+            Thread.sleep(100);
+            long now = System.nanoTime();
+            if (now >= nextReport || now >= end) {
+                long posted = stats.posted.sum(), delivered = stats.delivered.sum();
+                double secs = (now - lastAt) / 1e9;
+                Histogram.Snapshot l = stats.latency.snapshot();
+                System.out.printf("[%4ds] %8.0f posts/s %10.0f deliveries/s  latency p50=%s p99=%s  heap %d MB  pending %d%n",
+                        TimeUnit.NANOSECONDS.toSeconds(now - start), (posted - lastPosted) / secs, (delivered - lastDelivered) / secs,
+                        micros(l.valueAtPercentile(50)), micros(l.valueAtPercentile(99)), heapUsed() >> 20,
+                        manager.getDeliveryEngine().pendingTasks());
+                lastPosted = posted;
+                lastDelivered = delivered;
+                lastAt = now;
+                nextReport += TimeUnit.SECONDS.toNanos(options.reportSeconds);
+            }
+        }
+        running = false;
+        for (Thread t : threads) t.join();
+        long drainStart = System.nanoTime();
+        while (manager.getDeliveryEngine().pendingTasks() > 0 && System.nanoTime() - drainStart < TimeUnit.SECONDS.toNanos(30)) {
+            Thread.sleep(10);
+        }
+        stats.recording = false;
+        report((System.nanoTime() - start) / 1e9, (System.nanoTime() - drainStart) / 1e6);
+        manager.shutdown();
+    }
+
+    private void setUp() {
+        manager.setHistoryStoreFactory(id -> new ChatApp.RingHistoryStore(options.history));
+        if (!options.limits) {
+            manager.setUserRateLimit(TokenBucket.Limit.UNLIMITED);
+            manager.setRoomRateLimit(TokenBucket.Limit.UNLIMITED);
+        }
+        for (int r = 0; r < options.rooms; r++) {
+            ChatApp.ChatRoom room = manager.createOrGetRoom("load-" + r);
+            room.setReplayLimit(0);
+            rooms.add(room);
+            members.add(new ArrayList<>());
+        }
+        // room sizes follow the same Zipf curve as traffic: the hot rooms are also the big ones
+        Random random = new Random(42);
+        for (int u = 0; u < options.users; u++) {
+            ChatApp.User user = new ChatApp.User("load-u" + u, new ProbeCommunicator(stats),
+                    ChatApp.Mailbox.DEFAULT_CAPACITY, ChatApp.OverflowPolicy.DROP_OLDEST, manager);
+            Set<Integer> joined = new HashSet<>();
+            while (joined.size() < options.membership) joined.add(roomRank.next(random));
+            for (int r : joined) {
+                rooms.get(r).join(user);
+                members.get(r).add(user);
+            }
+        }
+        for (int r = 0; r < options.rooms; r++) {
+            if (members.get(r).isEmpty()) {
+                ChatApp.User user = new ChatApp.User("load-extra" + r, new ProbeCommunicator(stats),
+                        ChatApp.Mailbox.DEFAULT_CAPACITY, ChatApp.OverflowPolicy.DROP_OLDEST, manager);
+                rooms.get(r).join(user);
+                members.get(r).add(user);
+            }
+        }
+        while (manager.getDeliveryEngine().pendingTasks() > 0) LockSupport.parkNanos(1_000_000);
+        int largest = members.stream().mapToInt(List::size).max().orElse(0);
+        System.out.printf("Set up %d rooms (largest %d members), %d users%n", options.rooms, largest, options.users);
+    }
+
+    // Open loop: each poster owns every posters-th slot of the schedule and never waits for deliveries
+    private void post() {
+        Random random = ThreadLocalRandom.current();
+        long interval = (long) (1e9 * options.posters / options.rate);
+        String filler = " " + "x".repeat(Math.max(0, options.size - 18));
+        long due = System.nanoTime();
+        while (running) {
+            long now = System.nanoTime();
+            if (now < due) {
+                LockSupport.parkNanos(due - now);
+                continue;
+            }
+            if (now - due > 1_000_000) stats.late.increment();
+            int r = roomRank.next(random);
+            List<ChatApp.User> in = members.get(r);
+            ChatApp.User sender = in.get(random.nextInt(in.size()));
+            sender.sendMessage(rooms.get(r), String.format("#%016x", due) + filler);
+            stats.posted.increment();
+            due += interval;
+        }
+    }
+
+    // Reconnects: a member leaves and rejoins with the last sequence it saw, exercising history replay
+    private void churn() {
+        Random random = ThreadLocalRandom.current();
+        long interval = (long) (1e9 / options.churn);
+        long due = System.nanoTime();
+        while (running) {
+            LockSupport.parkNanos(Math.max(0, due - System.nanoTime()));
+            due += interval;
+            int r = roomRank.next(random);
+            ChatApp.ChatRoom room = rooms.get(r);
+            List<ChatApp.User> in = members.get(r);
+            ChatApp.User user = in.get(random.nextInt(in.size()));
+            long lastSeen = room.getHistoryStore().nextSequence() - 1 - random.nextInt(100);
+            room.leave(user);
+            ((ProbeCommunicator) user.getCommunicator()).rejoinedAt = System.nanoTime();
+            room.join(user, lastSeen);
+            stats.reconnects.increment();
+        }
+    }
+
+    private void sampleHeap() {
+        while (running) {
+            stats.peakHeap.accumulateAndGet(heapUsed(), Math::max);
+            LockSupport.parkNanos(50_000_000);
+        }
+    }
+
+    private void watchGc() {
+        NotificationListener listener = (Notification n, Object handback) -> {
+            if (!n.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) return;
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) n.getUserData());
+            long pauseMillis = info.getGcInfo().getDuration();
+            if (stats.recording) {
+                stats.gcPauses.record(pauseMillis);
+                stats.gcPauseTotal.add(pauseMillis);
+                stats.gcPauseMax.accumulateAndGet(pauseMillis, Math::max);
+            }
+            long live = 0;
+            for (MemoryUsage u : info.getGcInfo().getMemoryUsageAfterGc().values()) live += u.getUsed();
+            stats.peakLiveHeap.accumulateAndGet(live, Math::max);
+        };
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) ((NotificationEmitter) gc).addNotificationListener(listener, null, null);
+        }
+    }
+
+    private void resetCounters() {
+        stats.posted.reset();
+        stats.late.reset();
+        stats.delivered.reset();
+        stats.reconnects.reset();
+        stats.replayed.reset();
+        stats.latency.snapshotAndReset();
+        stats.gcPauses.snapshotAndReset();
+        stats.gcPauseTotal.reset();
+        stats.gcPauseMax.set(0);
+        stats.peakHeap.set(heapUsed());
+        stats.peakLiveHeap.set(0);
+    }
+
+    private void report(double seconds, double drainMillis) {
+        Histogram.Snapshot l = stats.latency.snapshot();
+        Histogram.Snapshot gc = stats.gcPauses.snapshot();
+        ChatMetrics.MetricsSnapshot engine = manager.getMetrics().snapshot();
+        long dropped = 0;
+        for (List<ChatApp.User> in : members) for (ChatApp.User u : in) dropped += u.getMailbox().getDroppedCount();
+        System.out.println();
+        System.out.printf("=== %.1f s measured, drained in %.0f ms ===%n", seconds, drainMillis);
+        System.out.printf("posts        %d (%.0f/s, %d late), %d rejected by limits%n", stats.posted.sum(),
+                stats.posted.sum() / seconds, stats.late.sum(), manager.getMetrics().getRejectedTotal());
+        System.out.printf("deliveries   %d (%.0f/s), %d dropped by full mailboxes%n", stats.delivered.sum(),
+                stats.delivered.sum() / seconds, dropped);
+        System.out.printf("reconnects   %d, %d messages replayed%n", stats.reconnects.sum(), stats.replayed.sum());
+        System.out.printf("latency      p50=%s p90=%s p99=%s p99.9=%s max=%s%n", micros(l.valueAtPercentile(50)),
+                micros(l.valueAtPercentile(90)), micros(l.valueAtPercentile(99)), micros(l.valueAtPercentile(99.9)),
+                micros(l.getMax()));
+        System.out.printf("gc pauses    %d, total %d ms, p99=%d ms, max=%d ms%n", gc.getCount(),
+                stats.gcPauseTotal.sum(), gc.valueAtPercentile(99), stats.gcPauseMax.get());
+        System.out.printf("heap         peak %d MB, peak after GC %d MB%n", stats.peakHeap.get() >> 20, stats.peakLiveHeap.get() >> 20);
+        System.out.printf("delivery lanes over the last %d ms metrics interval:%n", engine.intervalMillis);
+        for (ChatMetrics.LaneSnapshot lane : engine.lanes) System.out.println("  " + lane);
+    }
+
+    private static Thread start(String name, Runnable body) {
+        Thread t = new Thread(body, name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static String micros(long nanos) {
+        return nanos >= 10_000_000 ? nanos / 1_000_000 + "ms" : nanos / 1000 + "us";
+    }
+}
@@ -0,0 +1,11 @@
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/** Swallows everything, so a benchmark measures the engine and not an adapter. */
+public class NoOpCommunicator implements ChatApp.Communicator {
+    @Override public void send(String message) { }
+    @Override public void sendSystem(String message) { }
+    @Override public void sendEncoded(ByteBuffer payload) { }
+    @Override public void sendBatch(List<ByteBuffer> payloads) { }
+    @Override public String protocolName() { return "NoOp"; }
+}
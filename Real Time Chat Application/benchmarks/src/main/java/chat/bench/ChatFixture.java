@@ -0,0 +1,44 @@
+package chat.bench;
+
+/**
+ * What the benchmarks need from the chat engine. ChatApp lives in the default package, which
+ * named packages (and so JMH benchmarks) cannot import; the implementation, ChatBenchFixture,
+ * sits in the default package and is loaded by name.
+ */
+public interface ChatFixture {
+
+    static ChatFixture create() {
+        try {
+            return (ChatFixture) Class.forName("ChatBenchFixture").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("ChatBenchFixture is missing from the classpath", e);
+        }
+    }
+
+    /** Creates a fresh room with 'members' users on counting communicators. */
+    void open(int members, int historyCapacity);
+
+    /** Posts one public message from the first member. */
+    void post(String text);
+
+    /** Room messages delivered to members so far (system notices are not counted). */
+    long delivered();
+
+    int members();
+
+    /** Waits until at least 'target' deliveries have been counted. */
+    void awaitDelivered(long target);
+
+    /** Waits until the delivery engine has no queued or running tasks. */
+    void awaitIdle();
+
+    /** Fills history with 'count' messages and waits for them to be delivered. */
+    void fill(int count);
+
+    /** A no-op visitor joins asking for the last 'replay' messages, then leaves. */
+    void joinAndLeave(int replay);
+
+    int activeUserCount();
+
+    void close();
+}
@@ -0,0 +1,52 @@
+package chat.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Room fan-out: messages per second through ChatRoom.postMessage up to every member's
+ * communicator, and the post-to-last-delivery latency distribution, across room sizes.
+ * Run with -prof gc for allocation per message.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FanOutBenchmark {
+    private static final int BATCH = 64;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int roomSize;
+
+    private ChatFixture chat;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        chat = ChatFixture.create();
+        chat.open(roomSize, 1000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        chat.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH)
+    public void throughput() {
+        long target = chat.delivered() + (long) BATCH * chat.members();
+        for (int i = 0; i < BATCH; i++) chat.post("benchmark message");
+        chat.awaitDelivered(target);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void postToDeliver() {
+        long target = chat.delivered() + chat.members();
+        chat.post("benchmark message");
+        chat.awaitDelivered(target);
+    }
+}
@@ -0,0 +1,37 @@
+package chat.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** Join cost as history grows: a visitor resumes the whole history, then leaves. */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JoinBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int historySize;
+
+    private ChatFixture chat;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        chat = ChatFixture.create();
+        chat.open(10, historySize);
+        chat.fill(historySize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        chat.close();
+    }
+
+    @Benchmark
+    public void joinReplay() {
+        chat.joinAndLeave(historySize);
+        chat.awaitIdle();
+    }
+}
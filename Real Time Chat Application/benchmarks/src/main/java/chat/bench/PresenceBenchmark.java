@@ -0,0 +1,35 @@
+package chat.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** Cost of asking a room who is in it. */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PresenceBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int roomSize;
+
+    private ChatFixture chat;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        chat = ChatFixture.create();
+        chat.open(roomSize, 100);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        chat.close();
+    }
+
+    @Benchmark
+    public int activeUsers() {
+        return chat.activeUserCount();
+    }
+}
@@ -0,0 +1,74 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ChatMetricsTest {
+    private final ChatMetrics metrics = new ChatMetrics(ChatMetrics.DEFAULT_INTERVAL_MILLIS);
+
+    @AfterEach
+    void close() {
+        metrics.close();
+    }
+
+    @Test
+    void snapshotCoversOnlyTheIntervalSinceTheLastCut() {
+        ChatMetrics.RoomMetrics lobby = metrics.room("lobby");
+        lobby.posted(3);
+        lobby.posted(5);
+        lobby.rejected();
+        lobby.enqueued();
+        lobby.enqueued();
+        lobby.dequeued();
+
+        AtomicReference<ChatMetrics.MetricsSnapshot> heard = new AtomicReference<>();
+        metrics.addListener(heard::set);
+        ChatMetrics.MetricsSnapshot first = metrics.snapshot();
+        assertSame(first, heard.get());
+        assertSame(first, metrics.latest());
+        ChatMetrics.RoomSnapshot room = first.rooms.get(0);
+        assertEquals("lobby", room.roomId);
+        assertEquals(2, room.posts);
+        assertEquals(1, room.rejected);
+        assertEquals(1, room.queueDepth);
+        assertEquals(2, room.peakQueueDepth);
+        assertEquals(2, room.fanOut.getCount());
+        assertEquals(5, room.fanOut.getMax());
+        assertEquals(1, metrics.getRejectedTotal());
+
+        lobby.posted(1);
+        ChatMetrics.RoomSnapshot next = metrics.snapshot().rooms.get(0);
+        assertEquals(1, next.posts);
+        assertEquals(0, next.rejected);
+        assertEquals(1, next.peakQueueDepth); // peak restarts from the current depth
+        assertEquals(1, next.fanOut.getCount());
+        assertEquals(1, metrics.getRejectedTotal()); // running total, not per interval
+    }
+
+    @Test
+    void hotRoomsAreTheBusiestFirst() {
+        for (int i = 0; i < 3; i++) metrics.room("quiet").posted(1);
+        for (int i = 0; i < 9; i++) metrics.room("busy").posted(1);
+        metrics.room("idle");
+        ChatMetrics.MetricsSnapshot s = metrics.snapshot();
+        assertEquals("busy", s.hotRooms(2).get(0).roomId);
+        assertEquals("quiet", s.hotRooms(2).get(1).roomId);
+        assertEquals(2, s.hotRooms(2).size());
+    }
+
+    @Test
+    void laneCountsQueuedAndStartedTasks() {
+        ChatMetrics.LaneMetrics lane = metrics.lane("SYSTEM");
+        lane.queued();
+        lane.queued();
+        lane.started(1_000);
+        ChatMetrics.LaneSnapshot s = metrics.snapshot().lanes.get(0);
+        assertEquals("SYSTEM", s.lane);
+        assertEquals(1, s.tasks);
+        assertEquals(1, s.queueDepth);
+        assertEquals(2, s.peakQueueDepth);
+        assertEquals(1_000, s.queueWaitNanos.getMax());
+    }
+}
@@ -0,0 +1,91 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ChatRoomTest {
+    private final ChatApp.ChatRoomManager manager = new ChatApp.ChatRoomManager();
+
+    @AfterEach
+    void shutdown() throws InterruptedException {
+        manager.shutdown();
+    }
+
+    private ChatApp.User user(String name, RecordingCommunicator c) {
+        return new ChatApp.User(name, c, ChatApp.Mailbox.DEFAULT_CAPACITY, ChatApp.OverflowPolicy.DROP_OLDEST, manager);
+    }
+
+    @Test
+    void postReachesEveryMember() throws InterruptedException {
+        ChatApp.ChatRoom room = manager.createOrGetRoom("lobby");
+        RecordingCommunicator a = new RecordingCommunicator(), b = new RecordingCommunicator();
+        ChatApp.User alice = user("alice", a), bob = user("bob", b);
+        room.join(alice);
+        room.join(bob);
+        alice.sendMessage(room, "hello there");
+        assertTrue(b.await("hello there"));
+        assertTrue(a.await("hello there"));
+    }
+
+    @Test
+    void joinReplaysRecentHistory() throws InterruptedException {
+        ChatApp.ChatRoom room = manager.createOrGetRoom("lobby");
+        ChatApp.User alice = user("alice", new RecordingCommunicator());
+        room.join(alice);
+        for (int i = 0; i < 5; i++) alice.sendMessage(room, "m" + i);
+        RecordingCommunicator late = new RecordingCommunicator();
+        room.join(user("carol", late));
+        assertTrue(late.await("m4"));
+        assertTrue(late.anyContains("m0"));
+    }
+
+    @Test
+    void replayGoesOutWholeBeforeLivePostsAndNothingTwice() throws InterruptedException {
+        ChatApp.ChatRoom room = manager.createOrGetRoom("lobby");
+        room.setReplayLimit(300); // the join notice is in history too
+        for (int i = 0; i < 250; i++) room.postMessage(new ChatApp.Message("alice", "lobby", null, String.format("<h%03d>", i)));
+        RecordingCommunicator c = new RecordingCommunicator();
+        room.join(user("carol", c)); // three replay pages
+        for (int i = 0; i < 5; i++) room.postMessage(new ChatApp.Message("alice", "lobby", null, "<live" + i + ">"));
+        assertTrue(c.await("<live4>"));
+
+        String all = String.join("\n", c.received());
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 250; i++) expected.add(String.format("<h%03d>", i));
+        for (int i = 0; i < 5; i++) expected.add("<live" + i + ">");
+        int last = -1;
+        for (String marker : expected) {
+            int at = all.indexOf(marker);
+            assertTrue(at > last, marker + " out of order");
+            assertEquals(at, all.lastIndexOf(marker), marker + " delivered twice");
+            last = at;
+        }
+    }
+
+    @Test
+    void aFloodGetsOneNoticeThroughTheMailbox() throws InterruptedException {
+        manager.setUserRateLimit(new TokenBucket.Limit(0.001, 2));
+        ChatApp.ChatRoom room = manager.createOrGetRoom("lobby");
+        RecordingCommunicator c = new RecordingCommunicator();
+        ChatApp.User alice = user("alice", c);
+        room.join(alice);
+        for (int i = 0; i < 10; i++) alice.sendMessage(room, "flood " + i);
+        assertTrue(c.await("flood 1"));
+        assertTrue(c.await("sending messages too fast"));
+        assertFalse(c.anyContains("flood 2"));
+        assertEquals(1, c.received().stream().filter(s -> s.contains("too fast")).count());
+        assertEquals(8, manager.getMetrics().getRejectedTotal());
+    }
+
+    @Test
+    void nonMemberCannotPost() throws InterruptedException {
+        ChatApp.ChatRoom room = manager.createOrGetRoom("lobby");
+        RecordingCommunicator c = new RecordingCommunicator();
+        user("mallory", c).sendMessage(room, "spam");
+        assertTrue(c.await("You are not in room lobby."));
+        assertEquals(0, room.getHistory().stream().filter(m -> m.getText().equals("spam")).count());
+    }
+}
@@ -0,0 +1,123 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ChatServerTest {
+    private final ChatApp.ChatRoomManager manager = new ChatApp.ChatRoomManager();
+    private ChatServer server;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = new ChatServer(0, 1, manager);
+        server.start();
+    }
+
+    @AfterEach
+    void shutdown() throws Exception {
+        server.close();
+        manager.shutdown();
+    }
+
+    private Socket connect() throws IOException {
+        Socket s = new Socket("127.0.0.1", server.getPort());
+        s.setSoTimeout(5000);
+        return s;
+    }
+
+    private static void write(Socket s, String ascii) throws IOException {
+        s.getOutputStream().write(ascii.getBytes(StandardCharsets.ISO_8859_1));
+        s.getOutputStream().flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') if (c != '\r') sb.append((char) c);
+        return sb.toString();
+    }
+
+    // Status line of the response; the rest of the head is consumed
+    private static String readHead(InputStream in) throws IOException {
+        String status = readLine(in);
+        while (!readLine(in).isEmpty()) { }
+        return status;
+    }
+
+    private static void sendTextFrame(Socket s, String text) throws IOException {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        byte[] mask = {1, 2, 3, 4};
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write(0x81);
+        frame.write(0x80 | payload.length);
+        frame.write(mask);
+        for (int i = 0; i < payload.length; i++) frame.write(payload[i] ^ mask[i & 3]);
+        s.getOutputStream().write(frame.toByteArray());
+        s.getOutputStream().flush();
+    }
+
+    private static String readFrame(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        data.readUnsignedByte();
+        int len = data.readUnsignedByte() & 0x7F;
+        if (len == 126) len = data.readUnsignedShort();
+        else if (len == 127) len = (int) data.readLong();
+        byte[] payload = new byte[len];
+        data.readFully(payload);
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void webSocketPostReachesAnSseSubscriber() throws IOException {
+        try (Socket sse = connect(); Socket ws = connect()) {
+            write(sse, "GET /events?user=bob&room=lobby HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            InputStream sseIn = sse.getInputStream();
+            assertEquals("HTTP/1.1 200 OK", readHead(sseIn));
+
+            write(ws, "GET /ws?user=alice&room=lobby HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\n"
+                    + "Connection: Upgrade\r\nSec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n\r\n");
+            InputStream wsIn = ws.getInputStream();
+            assertEquals("HTTP/1.1 101 Switching Protocols", readHead(wsIn));
+            sendTextFrame(ws, "hello over the wire");
+
+            String line;
+            do {
+                line = readLine(sseIn);
+            } while (!line.contains("hello over the wire"));
+            assertTrue(line.startsWith("data: "));
+            assertTrue(line.contains("\"from\":\"alice\""));
+
+            String frame;
+            do {
+                frame = readFrame(wsIn);
+            } while (!frame.contains("hello over the wire"));
+            assertNotNull(manager.findUser("alice")); // the session belongs to the server's manager
+        }
+    }
+
+    @Test
+    void badResumeSequenceIsRejectedBeforeTheHandshake() throws IOException {
+        try (Socket s = connect()) {
+            write(s, "GET /events?user=bob&room=lobby&lastSeq=soon HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            assertEquals("HTTP/1.1 400 Bad Request", readHead(s.getInputStream()));
+        }
+        assertNull(manager.findUser("bob"));
+    }
+
+    @Test
+    void negativeOrOversizedContentLengthIsRejected() throws IOException {
+        try (Socket s = connect()) {
+            write(s, "POST /send?user=bob HTTP/1.1\r\nContent-Length: -5\r\n\r\n");
+            assertEquals("HTTP/1.1 400 Bad Request", readHead(s.getInputStream()));
+        }
+        try (Socket s = connect()) {
+            write(s, "POST /send?user=bob HTTP/1.1\r\nContent-Length: 100000000\r\n\r\n");
+            assertEquals("HTTP/1.1 413 Payload Too Large", readHead(s.getInputStream()));
+        }
+    }
+}
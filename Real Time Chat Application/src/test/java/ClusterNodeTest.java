@@ -0,0 +1,79 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ClusterNodeTest {
+    private final ClusterNode.InProcessTransport transport = new ClusterNode.InProcessTransport();
+    private final List<ClusterNode> nodes = new ArrayList<>();
+
+    @AfterEach
+    void shutdown() {
+        for (ClusterNode n : nodes) n.close();
+    }
+
+    private ClusterNode node(String id, List<ChatApp.HistoryStore> created) {
+        ChatApp.ChatRoomManager manager = new ChatApp.ChatRoomManager();
+        manager.setHistoryStoreFactory(roomId -> {
+            ChatApp.HistoryStore store = new TieredHistoryStore(100, 10_000);
+            created.add(store);
+            return store;
+        });
+        ClusterNode n = new ClusterNode(id, transport, manager);
+        nodes.add(n);
+        return n;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+
+    // A room the two-node ring gives to 'b'
+    private static String roomOwnedByB() {
+        ClusterNode.HashRing ring = new ClusterNode.HashRing(Set.of("a", "b"));
+        for (int i = 0; ; i++) {
+            if (ring.ownerOf("room-" + i).equals("b")) return "room-" + i;
+        }
+    }
+
+    @Test
+    void handoffKeepsHistoryNumberingAndTheConfiguredStore() throws InterruptedException {
+        List<ChatApp.HistoryStore> storesOnA = new ArrayList<>(), storesOnB = new ArrayList<>();
+        ClusterNode a = node("a", storesOnA);
+        String roomId = roomOwnedByB();
+        RecordingCommunicator c = new RecordingCommunicator();
+        ChatApp.User alice = new ChatApp.User("alice", c, ChatApp.Mailbox.DEFAULT_CAPACITY,
+                ChatApp.OverflowPolicy.DROP_OLDEST, a.getManager());
+        a.join(alice, roomId);
+        for (int i = 0; i < 10; i++) a.post(alice, roomId, "before " + i);
+        assertTrue(c.await("before 9"));
+        long next = a.getManager().createOrGetRoom(roomId).getHistoryStore().nextSequence();
+
+        ClusterNode b = node("b", storesOnB);
+        await(() -> b.getManager().listRooms().stream().anyMatch(r -> r.getRoomId().equals(roomId)));
+        ChatApp.ChatRoom moved = b.getManager().createOrGetRoom(roomId);
+        ChatApp.HistoryStore store = moved.getHistoryStore();
+        assertTrue(store instanceof TieredHistoryStore, "adopted through the history factory");
+        assertEquals(List.of(store), storesOnB);
+        assertTrue(store.nextSequence() >= next); // plus any join notice from the re-joins
+        List<ChatApp.Message> history = moved.getHistory();
+        for (int i = 0; i < history.size(); i++) assertEquals(i, history.get(i).getSequence());
+        assertTrue(history.stream().anyMatch(m -> m.getText().equals("before 9")));
+
+        // alice stays on 'a' and now reaches the room through 'b'
+        await(() -> moved.getActiveUsers().contains("alice"));
+        a.post(alice, roomId, "after the move");
+        assertTrue(c.await("after the move"));
+        assertTrue(moved.getHistory().stream().filter(m -> m.getText().equals("after the move"))
+                .findFirst().orElseThrow().getSequence() >= next);
+    }
+}
@@ -0,0 +1,104 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ColdRoomTest {
+    private final ChatApp.ChatRoomManager manager = new ChatApp.ChatRoomManager();
+
+    @AfterEach
+    void shutdown() throws InterruptedException {
+        manager.shutdown();
+    }
+
+    private ChatApp.User user(String name, RecordingCommunicator c) {
+        return new ChatApp.User(name, c, ChatApp.Mailbox.DEFAULT_CAPACITY, ChatApp.OverflowPolicy.DROP_OLDEST, manager);
+    }
+
+    private static ChatApp.Message msg(String from, String text, long millis) {
+        return new ChatApp.Message(from, "lobby", null, text, millis);
+    }
+
+    @Test
+    void freezeAndThawKeepTextSendersTimesAndNumbering() {
+        ChatApp.RingHistoryStore store = new ChatApp.RingHistoryStore(4);
+        for (int i = 0; i < 6; i++) store.append(msg(i % 2 == 0 ? "alice" : "bob", "m" + i, 1000 + i)); // m0, m1 lapped
+        ColdRoom cold = ColdRoom.freeze("lobby", store);
+        assertEquals(4, cold.messageCount());
+        assertEquals(6, cold.nextSequence());
+        assertTrue(cold.packedBytes() > 0);
+
+        ChatApp.HistoryStore thawed = cold.thaw(id -> { throw new AssertionError("in-memory rooms are not reopened"); });
+        List<ChatApp.Message> back = thawed.snapshot();
+        assertEquals(4, back.size());
+        for (int i = 0; i < 4; i++) {
+            ChatApp.Message m = back.get(i);
+            assertEquals(i + 2, m.getSequence());
+            assertEquals("m" + (i + 2), m.getText());
+            assertEquals(i % 2 == 0 ? "alice" : "bob", m.getFrom());
+            assertEquals(1002 + i, m.getEpochMillis());
+        }
+        assertEquals(6, thawed.nextSequence());
+        assertEquals(4, thawed.capacity());
+    }
+
+    @Test
+    void tieredHistoryIsKeptPacked() {
+        TieredHistoryStore store = new TieredHistoryStore(100, 10_000);
+        for (int i = 0; i < 300; i++) store.append(msg("alice", "m" + i, i));
+        ColdRoom cold = ColdRoom.freeze("lobby", store);
+        ChatApp.HistoryStore thawed = cold.thaw(id -> { throw new AssertionError(); });
+        assertEquals(300, thawed.nextSequence());
+        assertEquals("m0", thawed.get(0).getText());
+        assertEquals("m299", thawed.get(299).getText());
+    }
+
+    @Test
+    void idleRoomIsParkedAndComesBackWithItsHistory() throws InterruptedException {
+        ChatApp.ChatRoom room = manager.createOrGetRoom("lobby");
+        for (int i = 0; i < 5; i++) room.postMessage(msg("alice", "m" + i, System.currentTimeMillis()));
+        manager.setIdleRoomTtl(50);
+        assertEquals(0, manager.parkIdleRooms()); // just handed out
+        Thread.sleep(100);
+        assertEquals(1, manager.parkIdleRooms());
+        assertEquals(1, manager.parkedRoomCount());
+        assertTrue(manager.roomExists("lobby"));
+
+        ChatApp.ChatRoom back = manager.createOrGetRoom("lobby");
+        assertNotSame(room, back);
+        assertEquals(0, manager.parkedRoomCount());
+        assertEquals(5, back.getHistoryStore().nextSequence());
+        assertEquals("m4", back.getHistory().get(4).getText());
+    }
+
+    @Test
+    void aParkedRoomForwardsJoinsAndPostsToItsSuccessor() throws InterruptedException {
+        ChatApp.ChatRoom stale = manager.createOrGetRoom("lobby");
+        manager.setIdleRoomTtl(50);
+        Thread.sleep(100);
+        assertEquals(1, manager.parkIdleRooms());
+
+        RecordingCommunicator c = new RecordingCommunicator();
+        ChatApp.User alice = user("alice", c);
+        stale.join(alice); // thaws the room and joins there
+        assertTrue(c.await("alice joined the room"));
+        stale.postMessage(msg("alice", "through the old handle", System.currentTimeMillis()));
+        assertTrue(c.await("through the old handle"));
+        ChatApp.ChatRoom live = manager.createOrGetRoom("lobby");
+        assertNotSame(stale, live);
+        assertTrue(live.getActiveUsers().contains("alice"));
+        assertTrue(stale.getActiveUsers().isEmpty());
+    }
+
+    @Test
+    void aShutDownRoomDoesNotComeBack() {
+        ChatApp.ChatRoom room = manager.createOrGetRoom("lobby");
+        room.shutdown();
+        room.join(user("alice", new RecordingCommunicator()));
+        room.postMessage(msg("alice", "lost", 1));
+        assertEquals(0, room.getActiveUserCount());
+        assertTrue(room.getHistory().isEmpty());
+    }
+}
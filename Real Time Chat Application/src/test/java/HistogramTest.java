@@ -0,0 +1,70 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class HistogramTest {
+    @Test
+    void smallValuesAreExact() {
+        for (long v = 0; v < 32; v++) {
+            assertEquals(v, Histogram.upperBound(Histogram.indexOf(v)));
+        }
+    }
+
+    @Test
+    void bucketBoundsStayWithinOneSixteenthOfTheValue() {
+        for (long v = 32; v < 1L << 40; v = v * 3 / 2 + 7) {
+            long bound = Histogram.upperBound(Histogram.indexOf(v));
+            assertTrue(bound >= v, "bound below " + v);
+            assertTrue(bound - v <= v / 16, "bound too far above " + v);
+        }
+        // neighbouring buckets do not overlap
+        for (int i = 1; i < Histogram.indexOf(1L << 40); i++) {
+            assertEquals(i, Histogram.indexOf(Histogram.upperBound(i)));
+            assertEquals(i, Histogram.indexOf(Histogram.upperBound(i - 1) + 1));
+        }
+    }
+
+    @Test
+    void hugeAndNegativeValuesAreClamped() {
+        Histogram h = new Histogram();
+        h.record(-5);
+        h.record(Long.MAX_VALUE / 2);
+        Histogram.Snapshot s = h.snapshot();
+        assertEquals(2, s.getCount());
+        assertEquals(0, s.valueAtPercentile(50));
+        assertEquals(Long.MAX_VALUE / 2, s.getMax());
+        assertEquals(Long.MAX_VALUE / 2, s.valueAtPercentile(100)); // top bucket, capped at max
+    }
+
+    @Test
+    void percentilesAndMean() {
+        Histogram h = new Histogram();
+        for (int v = 1; v <= 1000; v++) h.record(v);
+        Histogram.Snapshot s = h.snapshot();
+        assertEquals(1000, s.getCount());
+        assertEquals(500.5, s.getMean(), 1e-9);
+        assertEquals(1000, s.getMax());
+        long p50 = s.valueAtPercentile(50);
+        assertTrue(p50 >= 500 && p50 <= 500 + 500 / 16, "p50=" + p50);
+        long p99 = s.valueAtPercentile(99);
+        assertTrue(p99 >= 990 && p99 <= 1000, "p99=" + p99);
+        assertEquals(1, s.valueAtPercentile(0));
+    }
+
+    @Test
+    void snapshotAndResetStartsANewInterval() {
+        Histogram h = new Histogram();
+        h.record(100);
+        h.record(200);
+        Histogram.Snapshot first = h.snapshotAndReset();
+        assertEquals(2, first.getCount());
+        assertEquals(200, first.getMax());
+        h.record(7);
+        Histogram.Snapshot second = h.snapshotAndReset();
+        assertEquals(1, second.getCount());
+        assertEquals(7, second.getMax());
+        assertEquals(7.0, second.getMean());
+        assertEquals(0, h.snapshot().getCount());
+        assertEquals(0, Histogram.Snapshot.EMPTY.valueAtPercentile(99));
+    }
+}
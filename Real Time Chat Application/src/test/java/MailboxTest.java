@@ -0,0 +1,73 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class MailboxTest {
+    private final ChatApp.ChatRoomManager manager = new ChatApp.ChatRoomManager();
+
+    @AfterEach
+    void shutdown() throws InterruptedException {
+        manager.shutdown();
+    }
+
+    /** Holds the first send until released, so the mailbox backs up behind it. */
+    private static final class StalledCommunicator extends RecordingCommunicator {
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void send(String payload) {
+            sending.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.send(payload);
+        }
+    }
+
+    @Test
+    void disconnectedUserReceivesAgainAfterRejoining() throws InterruptedException {
+        ChatApp.ChatRoom room = manager.createOrGetRoom("lobby");
+        StalledCommunicator c = new StalledCommunicator();
+        ChatApp.User slow = new ChatApp.User("slow", c, 4, ChatApp.OverflowPolicy.DISCONNECT, manager);
+        room.join(slow);
+
+        ChatApp.Mailbox mailbox = slow.getMailbox();
+        mailbox.offer(new ChatApp.Message("bob", "lobby", null, "first"));
+        assertTrue(c.sending.await(2, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) mailbox.offer(new ChatApp.Message("bob", "lobby", null, "backlog " + i));
+        assertTrue(mailbox.isClosed());
+        assertFalse(room.getActiveUsers().contains("slow"));
+        c.release.countDown();
+        assertTrue(c.await("Disconnected: outbound queue overflow"));
+
+        room.join(slow);
+        assertFalse(mailbox.isClosed());
+        ChatApp.User bob = new ChatApp.User("bob", new RecordingCommunicator(), 16, ChatApp.OverflowPolicy.DROP_OLDEST, manager);
+        room.join(bob);
+        bob.sendMessage(room, "after rejoin");
+        assertTrue(c.await("after rejoin"));
+    }
+
+    @Test
+    void dropOldestKeepsNewestItems() throws InterruptedException {
+        StalledCommunicator c = new StalledCommunicator();
+        ChatApp.User u = new ChatApp.User("u", c, 2, ChatApp.OverflowPolicy.DROP_OLDEST, manager);
+        manager.connect(u);
+        ChatApp.Mailbox mailbox = u.getMailbox();
+        mailbox.offer(new ChatApp.Message("bob", "lobby", null, "first"));
+        assertTrue(c.sending.await(2, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) mailbox.offer(new ChatApp.Message("bob", "lobby", null, "n" + i));
+        c.release.countDown();
+        assertTrue(c.await("n4"));
+        assertTrue(c.anyContains("n3"));
+        assertFalse(c.anyContains("n0"));
+        assertEquals(3, mailbox.getDroppedCount());
+    }
+}
@@ -0,0 +1,124 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MessageLogTest {
+    @TempDir
+    Path dir;
+
+    private static MessageLog.Config config(int retainSegments, long retainMillis) {
+        return new MessageLog.Config(4096, 4, 10, 1024, retainSegments, retainMillis);
+    }
+
+    private static ChatApp.Message msg(String text, long millis) {
+        return new ChatApp.Message("alice", "lobby", null, text, millis);
+    }
+
+    private List<Path> logFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.toString().endsWith(".log")).sorted().toList();
+        }
+    }
+
+    @Test
+    void reopenRestoresEveryRecordAcrossSegments() throws IOException {
+        long now = System.currentTimeMillis();
+        try (MessageLog log = MessageLog.open(dir, config(64, 0))) {
+            for (int i = 0; i < 300; i++) assertEquals(i, log.append(msg("m" + i, now + i)));
+            assertTrue(log.segmentCount() > 1);
+        }
+        try (MessageLog log = MessageLog.open(dir, config(64, 0))) {
+            assertEquals(300, log.nextSeq());
+            List<ChatApp.Message> all = log.read(0, 1000);
+            assertEquals(300, all.size());
+            for (int i = 0; i < 300; i++) {
+                ChatApp.Message m = all.get(i);
+                assertEquals(i, m.getSequence());
+                assertEquals("m" + i, m.getText());
+                assertEquals(now + i, m.getEpochMillis());
+                assertEquals("alice", m.getFrom());
+                assertEquals("lobby", m.getToRoom());
+                assertNull(m.getToUser());
+            }
+            assertEquals("m250", log.read(250, 1).get(0).getText());
+            assertEquals(List.of("m298", "m299"), log.tail(2).stream().map(ChatApp.Message::getText).toList());
+            assertEquals(300, log.append(msg("next", now)));
+        }
+    }
+
+    @Test
+    void recoveryStopsAtATornRecord() throws IOException {
+        try (MessageLog log = MessageLog.open(dir, config(64, 0))) {
+            for (int i = 0; i < 10; i++) log.append(msg("m" + i, 1000 + i));
+        }
+        // corrupt the body of the eighth record, as a crash mid-write would
+        Path file = logFiles().get(0);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ch.map(FileChannel.MapMode.READ_WRITE, 0, ch.size());
+            int pos = 0;
+            for (int i = 0; i < 7; i++) pos += 8 + b.getInt(pos);
+            b.put(pos + 30, (byte) (b.get(pos + 30) ^ 0x55));
+        }
+        try (MessageLog log = MessageLog.open(dir, config(64, 0))) {
+            assertEquals(7, log.nextSeq());
+            assertEquals(7, log.read(0, 100).size());
+            assertEquals(7, log.append(msg("after crash", 2000)));
+        }
+        try (MessageLog log = MessageLog.open(dir, config(64, 0))) {
+            List<ChatApp.Message> all = log.read(0, 100);
+            assertEquals(8, all.size());
+            assertEquals("after crash", all.get(7).getText());
+        }
+    }
+
+    @Test
+    void retentionUsesMessageTimesNotFileTimes() throws IOException {
+        long old = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(10);
+        long fresh = System.currentTimeMillis();
+        try (MessageLog log = MessageLog.open(dir, config(64, TimeUnit.DAYS.toMillis(1)))) {
+            // each roll drops the segment it sealed: the files are new but the messages are not
+            for (int i = 0; i < 200; i++) log.append(msg("old " + i, old));
+            assertEquals(1, log.segmentCount());
+            assertTrue(log.firstSeq() > 0);
+            for (int i = 0; i < 200; i++) log.append(msg("new " + i, fresh));
+            assertTrue(log.segmentCount() > 1);
+        }
+        // files that merely look old on disk are kept because their messages are recent
+        for (Path p : logFiles()) Files.setLastModifiedTime(p, FileTime.fromMillis(old));
+        try (MessageLog log = MessageLog.open(dir, config(64, TimeUnit.DAYS.toMillis(1)))) {
+            int before = log.segmentCount();
+            long first = log.firstSeq();
+            for (int i = 0; i < 200; i++) log.append(msg("more " + i, fresh));
+            assertTrue(log.segmentCount() > before);
+            assertEquals(first, log.firstSeq());
+        }
+    }
+
+    @Test
+    void segmentCountRetention() throws IOException {
+        try (MessageLog log = MessageLog.open(dir, config(2, 0))) {
+            for (int i = 0; i < 500; i++) log.append(msg("m" + i, 1));
+            assertEquals(2, log.segmentCount());
+            assertEquals(log.firstSeq(), log.read(0, 1).get(0).getSequence());
+        }
+    }
+
+    @Test
+    void flushMakesEverythingDurable() throws IOException {
+        try (MessageLog log = MessageLog.open(dir, config(64, 0))) {
+            for (int i = 0; i < 20; i++) log.append(msg("m" + i, 1));
+            log.flush();
+            assertEquals(20, log.durableSeq());
+        }
+    }
+}
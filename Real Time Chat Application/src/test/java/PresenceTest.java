@@ -0,0 +1,96 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.SortedSet;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class PresenceTest {
+    private final ChatApp.ChatRoomManager manager = new ChatApp.ChatRoomManager();
+
+    @AfterEach
+    void shutdown() throws InterruptedException {
+        manager.shutdown();
+    }
+
+    private ChatApp.User user(String name, RecordingCommunicator c) {
+        return new ChatApp.User(name, c, ChatApp.Mailbox.DEFAULT_CAPACITY, ChatApp.OverflowPolicy.DROP_OLDEST, manager);
+    }
+
+    private ChatApp.User user(String name) { return user(name, new RecordingCommunicator()); }
+
+    @Test
+    void membersStaySortedAndSnapshotsNeverChange() {
+        Presence p = new Presence();
+        ChatApp.User carol = user("carol"), alice = user("alice"), bob = user("bob");
+        assertTrue(p.add(carol));
+        assertTrue(p.add(alice));
+        Presence.Snapshot before = p.snapshot();
+        assertTrue(p.add(bob));
+        assertEquals(List.of("alice", "carol"), List.copyOf(before.names()));
+        assertEquals(List.of("alice", "bob", "carol"), List.copyOf(p.snapshot().names()));
+        assertSame(bob, p.snapshot().find("bob"));
+        assertNull(before.find("bob"));
+
+        assertTrue(p.remove(alice));
+        assertFalse(p.remove(alice));
+        assertEquals(2, before.size());
+        assertEquals(2, p.size());
+        assertEquals(List.of("bob", "carol"), List.copyOf(p.snapshot().names()));
+    }
+
+    @Test
+    void aSecondSessionReplacesTheFirstUnderTheSameName() {
+        Presence p = new Presence();
+        ChatApp.User first = user("alice"), second = user("alice");
+        assertTrue(p.add(first));
+        assertFalse(p.add(second)); // not a new name
+        assertSame(second, p.snapshot().find("alice"));
+        assertFalse(p.remove(first)); // the stale session cannot remove the live one
+        assertTrue(p.remove(second));
+        assertTrue(p.snapshot().isEmpty());
+    }
+
+    @Test
+    void nameViewIsASortedSet() {
+        Presence p = new Presence();
+        for (String n : new String[] {"dave", "alice", "erin", "bob", "carol"}) p.add(user(n));
+        SortedSet<String> names = p.snapshot().names();
+        assertEquals("alice", names.first());
+        assertEquals("erin", names.last());
+        assertTrue(names.contains("carol"));
+        assertFalse(names.contains("zed"));
+        assertEquals(List.of("bob", "carol"), List.copyOf(names.subSet("b", "d")));
+        assertEquals(List.of("alice", "bob"), List.copyOf(names.headSet("bz")));
+        assertEquals(List.of("dave", "erin"), List.copyOf(names.tailSet("dave")));
+        assertThrows(UnsupportedOperationException.class, () -> names.add("frank"));
+    }
+
+    @Test
+    void joinsWithinTheWindowGoOutAsOneNotice() throws InterruptedException {
+        manager.setPresenceWindow(200);
+        ChatApp.ChatRoom room = manager.createOrGetRoom("lobby");
+        RecordingCommunicator c = new RecordingCommunicator();
+        room.join(user("alice", c)); // a quiet room announces the first join at once
+        assertTrue(c.await("alice joined the room"));
+        for (String n : new String[] {"bob", "carol", "dave", "erin"}) room.join(user(n));
+        ChatApp.User frank = user("frank");
+        room.join(frank);
+        room.leave(frank); // cancels out inside the window
+        assertTrue(c.await("bob, carol, dave and 1 other joined the room"));
+        assertFalse(c.anyContains("frank"));
+    }
+
+    @Test
+    void aZeroWindowAnnouncesEveryChangeAtOnce() throws InterruptedException {
+        manager.setPresenceWindow(0);
+        ChatApp.ChatRoom room = manager.createOrGetRoom("lobby");
+        RecordingCommunicator c = new RecordingCommunicator();
+        room.join(user("alice", c));
+        room.join(user("bob"));
+        room.join(user("carol"));
+        assertTrue(c.await("carol joined the room"));
+        assertTrue(c.anyContains("bob joined the room"));
+    }
+}
@@ -0,0 +1,34 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/** Keeps everything sent to one user, room traffic and notices alike, as text. */
+class RecordingCommunicator implements ChatApp.Communicator {
+    private final List<String> received = new ArrayList<>();
+
+    @Override public synchronized void send(String payload) { received.add(payload); notifyAll(); }
+    @Override public synchronized void sendSystem(String system) { received.add(system); notifyAll(); }
+    @Override public String protocolName() { return "Recording"; }
+
+    synchronized List<String> received() { return new ArrayList<>(received); }
+
+    synchronized boolean anyContains(String text) {
+        for (String s : received) if (s.contains(text)) return true;
+        return false;
+    }
+
+    // Waits up to two seconds for a payload containing 'text'
+    synchronized boolean await(String text) throws InterruptedException {
+        return await(r -> r.stream().anyMatch(s -> s.contains(text)));
+    }
+
+    synchronized boolean await(Predicate<List<String>> condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!condition.test(received)) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) return false;
+            wait(left);
+        }
+        return true;
+    }
+}
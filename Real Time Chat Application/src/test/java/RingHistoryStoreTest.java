@@ -0,0 +1,88 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+class RingHistoryStoreTest {
+
+    private static ChatApp.Message msg(String text) {
+        return new ChatApp.Message("alice", "lobby", null, text);
+    }
+
+    @Test
+    void keepsTheLastCapacityMessagesInOrder() {
+        ChatApp.RingHistoryStore store = new ChatApp.RingHistoryStore(3);
+        for (int i = 0; i < 5; i++) assertEquals(i, store.append(msg("m" + i)));
+        List<ChatApp.Message> all = store.snapshot();
+        assertEquals(List.of("m2", "m3", "m4"), all.stream().map(ChatApp.Message::getText).toList());
+        assertEquals(2, store.firstSequence());
+        assertEquals(5, store.nextSequence());
+        assertEquals(3, store.size());
+    }
+
+    @Test
+    void readsBySequenceAndCount() {
+        ChatApp.RingHistoryStore store = new ChatApp.RingHistoryStore(4);
+        for (int i = 0; i < 6; i++) store.append(msg("m" + i));
+        assertEquals("m5", store.lastN(1).get(0).getText());
+        assertEquals(4, store.lastN(10).size());
+        assertEquals(List.of(4L, 5L), store.fromSequence(4).stream().map(ChatApp.Message::getSequence).toList());
+        assertEquals(4, store.fromSequence(0).size()); // evicted part is skipped
+        assertEquals("m3", store.get(3).getText());
+        assertNull(store.get(1));
+        assertNull(store.get(6));
+    }
+
+    @Test
+    void continuesNumberingFromFirstSeq() {
+        ChatApp.RingHistoryStore store = new ChatApp.RingHistoryStore(8, 100);
+        assertTrue(store.snapshot().isEmpty());
+        assertEquals(100, store.append(msg("a")));
+        assertEquals(100, store.firstSequence());
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    void concurrentSnapshotsAreContiguous() throws InterruptedException {
+        ChatApp.RingHistoryStore store = new ChatApp.RingHistoryStore(64);
+        int writers = 4, perWriter = 20_000;
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            while (!done.get() && failure.get() == null) {
+                List<ChatApp.Message> snap = store.snapshot();
+                for (int i = 1; i < snap.size(); i++) {
+                    if (snap.get(i).getSequence() != snap.get(i - 1).getSequence() + 1) {
+                        failure.set("gap at " + snap.get(i - 1).getSequence());
+                    }
+                }
+                if (snap.size() > 64) failure.set("snapshot larger than capacity");
+            }
+        });
+        reader.start();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] ts = new Thread[writers];
+        for (int w = 0; w < writers; w++) {
+            ts[w] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perWriter; i++) store.append(msg("x"));
+            });
+            ts[w].start();
+        }
+        start.countDown();
+        for (Thread t : ts) t.join();
+        done.set(true);
+        reader.join();
+        assertNull(failure.get());
+        assertEquals((long) writers * perWriter, store.nextSequence());
+        assertEquals(64, store.snapshot().size());
+    }
+}
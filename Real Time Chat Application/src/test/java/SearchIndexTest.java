@@ -0,0 +1,102 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class SearchIndexTest {
+    private static final int MAX_PAGE = 100;
+
+    private final ChatApp.RingHistoryStore store = new ChatApp.RingHistoryStore(3 * SearchIndex.SEGMENT_DOCS);
+    private final SearchIndex index = new SearchIndex(SearchIndex.DEFAULT_MAX_SEGMENTS, store::firstReadableSequence);
+
+    private ChatApp.Message post(String from, String text, long millis) {
+        ChatApp.Message m = new ChatApp.Message(from, "lobby", null, text, millis);
+        store.append(m);
+        index.add(m);
+        return m;
+    }
+
+    private SearchIndex.Page search(SearchIndex.Query q) {
+        return index.search(q, store::get);
+    }
+
+    private static List<String> texts(SearchIndex.Page page) {
+        List<String> out = new ArrayList<>();
+        for (ChatApp.Message m : page.messages) out.add(m.getText());
+        return out;
+    }
+
+    @Test
+    void everyTermMustMatchAndAStarMatchesAPrefix() {
+        post("alice", "Deploy failed on staging", 1);
+        post("bob", "deploy went fine", 2);
+        post("alice", "the build is failing again", 3);
+        assertEquals(List.of("Deploy failed on staging"), texts(search(SearchIndex.Query.of("deploy FAILED"))));
+        assertEquals(List.of("Deploy failed on staging", "the build is failing again"), texts(search(SearchIndex.Query.of("fail*"))));
+        assertEquals(List.of("Deploy failed on staging"), texts(search(SearchIndex.Query.of("deploy fail*"))));
+        assertTrue(search(SearchIndex.Query.of("rollback")).messages.isEmpty());
+    }
+
+    @Test
+    void senderAndTimeRangeNarrowTheHits() {
+        LocalDateTime t0 = LocalDateTime.of(2024, 1, 1, 12, 0);
+        long base = ChatApp.Message.toEpochMillis(t0);
+        post("alice", "standup notes", base);
+        post("bob", "standup moved", base + 60_000);
+        post("alice", "standup done", base + 120_000);
+        assertEquals(List.of("standup notes", "standup done"), texts(search(SearchIndex.Query.of("standup").from("alice"))));
+        assertEquals(List.of("standup moved"),
+                texts(search(SearchIndex.Query.of("standup").between(t0.plusMinutes(1), t0.plusMinutes(2)))));
+        assertEquals(List.of("standup moved", "standup done"), texts(search(SearchIndex.Query.of("").between(t0.plusMinutes(1), null))));
+    }
+
+    @Test
+    void anUnknownSenderMatchesNothingAndIsNotInterned() {
+        post("alice", "hello", 1);
+        int symbols = ChatApp.Symbols.size();
+        String stranger = "nobody-" + System.nanoTime();
+        SearchIndex.Page page = search(SearchIndex.Query.of("hello").from(stranger));
+        assertTrue(page.messages.isEmpty());
+        assertFalse(page.hasMore());
+        assertTrue(search(SearchIndex.Query.of("").from(stranger)).messages.isEmpty());
+        assertEquals(symbols, ChatApp.Symbols.size());
+        assertEquals(ChatApp.Symbols.NONE, ChatApp.Symbols.lookup(stranger));
+    }
+
+    @Test
+    void pagesWalkEveryHitOnceAcrossSealedSegments() {
+        int total = 2 * SearchIndex.SEGMENT_DOCS + 500;
+        for (int i = 0; i < total; i++) post(i % 3 == 0 ? "alice" : "bob", (i % 2 == 0 ? "even " : "odd ") + i, i);
+        assertEquals(3, index.segmentCount());
+
+        List<Long> seen = new ArrayList<>();
+        SearchIndex.Query q = SearchIndex.Query.of("even").from("alice").limit(MAX_PAGE);
+        while (true) {
+            SearchIndex.Page page = search(q);
+            for (ChatApp.Message m : page.messages) seen.add(m.getSequence());
+            if (!page.hasMore()) break;
+            assertEquals(MAX_PAGE, page.messages.size());
+            q = SearchIndex.Query.of("even").from("alice").limit(MAX_PAGE).after(page.nextAfter);
+        }
+        List<Long> expected = new ArrayList<>();
+        for (long s = 0; s < total; s += 6) expected.add(s);
+        assertEquals(expected, seen);
+    }
+
+    @Test
+    void segmentsTheHistoryHasLappedAreDropped() {
+        ChatApp.RingHistoryStore small = new ChatApp.RingHistoryStore(SearchIndex.SEGMENT_DOCS);
+        SearchIndex idx = new SearchIndex(SearchIndex.DEFAULT_MAX_SEGMENTS, small::firstReadableSequence);
+        for (int i = 0; i < 4 * SearchIndex.SEGMENT_DOCS; i++) {
+            ChatApp.Message m = new ChatApp.Message("alice", "lobby", null, "word " + i, i);
+            small.append(m);
+            idx.add(m);
+        }
+        assertTrue(idx.segmentCount() <= 3, "segments=" + idx.segmentCount());
+        SearchIndex.Page page = idx.search(SearchIndex.Query.of("word"), small::get);
+        assertTrue(page.messages.get(0).getSequence() >= small.firstReadableSequence());
+    }
+}
@@ -0,0 +1,80 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class TieredHistoryStoreTest {
+    private static final int BLOCK = TieredHistoryStore.BLOCK_SIZE;
+
+    private static ChatApp.Message msg(int i) {
+        return new ChatApp.Message(i % 3 == 0 ? "alice" : "bob", "lobby", null, "message number " + i, 1000L + i);
+    }
+
+    private static TieredHistoryStore filled(int hotCapacity, int maxMessages, int count) throws InterruptedException {
+        TieredHistoryStore store = new TieredHistoryStore(hotCapacity, maxMessages);
+        for (int i = 0; i < count; i++) store.append(msg(i));
+        awaitPacked(store, hotCapacity);
+        return store;
+    }
+
+    // The packer runs in the background; wait until it has nothing left to do
+    private static void awaitPacked(TieredHistoryStore store, int hotCapacity) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (store.nextSequence() - store.packedUpTo() >= hotCapacity + BLOCK) {
+            assertTrue(System.currentTimeMillis() < deadline, "packer timed out");
+            Thread.sleep(5);
+        }
+    }
+
+    private static void assertContiguous(List<ChatApp.Message> messages, long first, long next) {
+        assertEquals(next - first, messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            ChatApp.Message m = messages.get(i);
+            assertEquals(first + i, m.getSequence());
+            assertEquals("message number " + m.getSequence(), m.getText());
+            assertEquals(m.getSequence() % 3 == 0 ? "alice" : "bob", m.getFrom());
+            assertEquals(1000L + m.getSequence(), m.getEpochMillis());
+        }
+    }
+
+    @Test
+    void readsRunAcrossBothTiersInOrder() throws InterruptedException {
+        TieredHistoryStore store = filled(100, 10_000, 1000);
+        assertTrue(store.blockCount() >= 2);
+        assertContiguous(store.snapshot(), 0, 1000);
+        assertContiguous(store.fromSequence(10), 10, 1000);
+        assertContiguous(store.lastN(700), 300, 1000);
+        assertEquals("message number 5", store.get(5).getText());
+        assertEquals("message number 999", store.get(999).getText());
+        assertNull(store.get(1000));
+        assertEquals(1000, store.size());
+    }
+
+    @Test
+    void retentionDropsTheOldestBlocks() throws InterruptedException {
+        TieredHistoryStore store = filled(100, 1000, 5000);
+        long first = store.firstSequence();
+        assertTrue(first > 0);
+        assertTrue(store.size() <= 1000 + BLOCK, "size=" + store.size());
+        assertNull(store.get(first - 1));
+        assertContiguous(store.snapshot(), first, 5000);
+    }
+
+    @Test
+    void compactedKeepsOnlyWholeBlocksWithinTheLimit() throws InterruptedException {
+        TieredHistoryStore store = filled(600, 600, 2000);
+        TieredHistoryStore compacted = store.compacted();
+        assertEquals(2000, compacted.nextSequence());
+        assertTrue(compacted.size() <= 600, "size=" + compacted.size());
+        int tail = compacted.size() - compacted.blockCount() * BLOCK; // left hot
+        assertTrue(tail >= 0 && tail < BLOCK, "tail=" + tail);
+        assertContiguous(compacted.snapshot(), compacted.firstSequence(), 2000);
+
+        TieredHistoryStore again = compacted.compacted();
+        assertEquals(compacted.blockCount(), again.blockCount());
+        assertEquals(compacted.size(), again.size());
+        assertEquals(2000, again.append(msg(2000)));
+        assertContiguous(again.fromSequence(1990), 1990, 2001);
+    }
+}
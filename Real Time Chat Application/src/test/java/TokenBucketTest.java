@@ -0,0 +1,37 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class TokenBucketTest {
+    @Test
+    void burstIsAvailableAtOnceThenRefused() {
+        TokenBucket bucket = new TokenBucket(new TokenBucket.Limit(1, 5)); // one token a second
+        for (int i = 0; i < 5; i++) assertTrue(bucket.tryAcquire(), "token " + i);
+        assertFalse(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire()); // a refusal does not use up time
+    }
+
+    @Test
+    void refillsAtTheConfiguredRate() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(new TokenBucket.Limit(50, 1)); // one token per 20ms
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        Thread.sleep(60);
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire()); // an idle bucket holds at most 'burst'
+    }
+
+    @Test
+    void unlimitedNeverRefuses() {
+        TokenBucket bucket = new TokenBucket(TokenBucket.Limit.UNLIMITED);
+        for (int i = 0; i < 100_000; i++) assertTrue(bucket.tryAcquire());
+        assertTrue(TokenBucket.Limit.UNLIMITED.isUnlimited());
+    }
+
+    @Test
+    void limitsAreValidated() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket.Limit(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket.Limit(Double.NaN, 1));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket.Limit(1, 0));
+    }
+}
@@ -1,3 +1,5 @@
+import java.util.Collections;
+import java.util.Set;
 import java.util.logging.*;
 
 /**
@@ -27,6 +29,11 @@ public abstract class AbstractDevice implements Device {
         // default no-op. Devices can override if they care about hub changes.
     }
 
+    // Subscribes to nothing to match the no-op update(); devices overriding update() name their topics here
+    public Set<String> topics() {
+        return Collections.emptySet();
+    }
+
     public String toString() {
         return String.format("%s(id=%d)", type, id);
     }
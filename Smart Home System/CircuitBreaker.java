@@ -0,0 +1,149 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-device circuit breaker.
+ *
+ * CLOSED: calls go through and the outcomes of the last windowSize calls are kept. Once
+ * at least minimumCalls are recorded and the failure rate reaches the threshold it opens.
+ * OPEN: calls are refused without touching the device. When the open interval has passed
+ * the next call is let through as a probe (HALF_OPEN); everyone else is still refused.
+ * A successful probe closes the breaker with a clean window. A failed one reopens it with
+ * the interval doubled, up to maxOpenMillis, so a device that stays down is probed less
+ * and less often.
+ *
+ * A permit carries the generation it was granted in, and every state change starts a new
+ * one. An outcome reported with a permit from an older generation is ignored: a slow call
+ * admitted while CLOSED that fails after the breaker opened, or succeeds while a probe is in
+ * flight, says nothing about the device as the breaker now sees it.
+ */
+public class CircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /** What tryAcquire returns when the call is refused. */
+    public static final long REFUSED = -1;
+
+    private final boolean[] window; // true: failure
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openMillis;
+    private final long maxOpenMillis;
+
+    private State state = State.CLOSED;
+    private long generation;
+    private int recorded;
+    private int next;
+    private int failures;
+    private long currentOpenMillis;
+    private long probeAtNanos;
+    private boolean probeInFlight;
+    private long rejected;
+    private long timesOpened;
+
+    public CircuitBreaker() {
+        this(20, 5, 0.5, 5_000, 60_000);
+    }
+
+    public CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, long openMillis, long maxOpenMillis) {
+        if (windowSize <= 0) throw new IllegalArgumentException("windowSize > 0");
+        if (minimumCalls <= 0 || minimumCalls > windowSize) throw new IllegalArgumentException("0 < minimumCalls <= windowSize");
+        if (!(failureRateThreshold > 0 && failureRateThreshold <= 1)) throw new IllegalArgumentException("0 < failureRateThreshold <= 1");
+        if (openMillis <= 0 || maxOpenMillis < openMillis) throw new IllegalArgumentException("0 < openMillis <= maxOpenMillis");
+        this.window = new boolean[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openMillis = openMillis;
+        this.maxOpenMillis = maxOpenMillis;
+        this.currentOpenMillis = openMillis;
+    }
+
+    /**
+     * Permission for one call: a permit, or REFUSED. Every permit must be handed back to
+     * onSuccess, onFailure or release.
+     */
+    public synchronized long tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return generation;
+            case OPEN:
+                if (System.nanoTime() - probeAtNanos < 0) break;
+                enter(State.HALF_OPEN);
+                probeInFlight = true;
+                return generation;
+            case HALF_OPEN:
+                if (probeInFlight) break;
+                probeInFlight = true;
+                return generation;
+        }
+        rejected++;
+        return REFUSED;
+    }
+
+    public synchronized void onSuccess(long permit) {
+        if (permit != generation) return;
+        if (state == State.HALF_OPEN) {
+            close();
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    /** Returns a permit whose call never reached the device; records nothing. */
+    public synchronized void release(long permit) {
+        if (permit == generation && state == State.HALF_OPEN) probeInFlight = false;
+    }
+
+    public synchronized void onFailure(long permit) {
+        if (permit != generation) return;
+        if (state == State.HALF_OPEN) {
+            currentOpenMillis = Math.min(maxOpenMillis, currentOpenMillis * 2);
+            open();
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (recorded >= minimumCalls && failures >= failureRateThreshold * recorded) open();
+        }
+    }
+
+    private void record(boolean failure) {
+        if (recorded == window.length) {
+            if (window[next]) failures--;
+        } else {
+            recorded++;
+        }
+        window[next] = failure;
+        if (failure) failures++;
+        next = (next + 1) % window.length;
+    }
+
+    private void enter(State next) {
+        state = next;
+        generation++;
+    }
+
+    private void open() {
+        enter(State.OPEN);
+        probeInFlight = false;
+        probeAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(currentOpenMillis);
+        timesOpened++;
+    }
+
+    private void close() {
+        enter(State.CLOSED);
+        probeInFlight = false;
+        currentOpenMillis = openMillis;
+        recorded = next = failures = 0;
+    }
+
+    public synchronized State getState() { return state; }
+    public synchronized long getRejected() { return rejected; }
+    public synchronized long getTimesOpened() { return timesOpened; }
+
+    @Override
+    public synchronized String toString() {
+        String s = state + " failures=" + failures + "/" + recorded;
+        if (state != State.CLOSED) {
+            long wait = Math.max(0, TimeUnit.NANOSECONDS.toMillis(probeAtNanos - System.nanoTime()));
+            s += state == State.OPEN ? " probe in " + wait + "ms" : " probing";
+        }
+        return s + " rejected=" + rejected + " opened=" + timesOpened;
+    }
+}
@@ -0,0 +1,7 @@
+/**
+ * Thrown instead of calling a device whose circuit breaker is open. Not transient:
+ * RetryPolicy fails the call at once rather than backing off against it.
+ */
+public class CircuitOpenException extends DeviceException {
+    public CircuitOpenException(String message) { super(message); }
+}
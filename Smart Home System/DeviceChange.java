@@ -0,0 +1,27 @@
+/**
+ * One metric of one device moving from 'previous' to 'current'. Either side is null when the
+ * hub had no reading (a newly registered device) or the device stopped reporting the metric.
+ */
+public final class DeviceChange {
+    private final int deviceId;
+    private final String metric;
+    private final Double previous;
+    private final Double current;
+
+    public DeviceChange(int deviceId, String metric, Double previous, Double current) {
+        this.deviceId = deviceId;
+        this.metric = metric;
+        this.previous = previous;
+        this.current = current;
+    }
+
+    public int getDeviceId() { return deviceId; }
+    public String getMetric() { return metric; }
+    public Double getPrevious() { return previous; }
+    public Double getCurrent() { return current; }
+
+    @Override
+    public String toString() {
+        return String.format("Device %d %s: %s -> %s", deviceId, metric, previous, current);
+    }
+}
@@ -1,17 +1,26 @@
 import java.util.Objects;
+import java.util.Set;
 import java.util.logging.*;
 public class DeviceProxy implements Device {
     private final Device real;
     private final Logger logger = Logger.getLogger(DeviceProxy.class.getName());
+    private final CircuitBreaker breaker;
     private volatile long lastAccess = 0;
-    private DeviceProxy(Device real) {
+    private DeviceProxy(Device real, CircuitBreaker breaker) {
         this.real = Objects.requireNonNull(real);
+        this.breaker = Objects.requireNonNull(breaker);
     }
 
     public static Device createProxy(Device real) {
-        return new DeviceProxy(real);
+        return new DeviceProxy(real, new CircuitBreaker());
     }
 
+    public static Device createProxy(Device real, CircuitBreaker breaker) {
+        return new DeviceProxy(real, breaker);
+    }
+
+    public CircuitBreaker getCircuitBreaker() { return breaker; }
+
     @Override
     public int getId() { return real.getId(); }
 
@@ -23,30 +32,46 @@ public class DeviceProxy implements Device {
 
     @Override
     public void turnOn() throws DeviceException {
-        throttle();
+        long permit = admit();
         try {
             real.turnOn();
+            breaker.onSuccess(permit);
         } catch (DeviceException e) {
+            breaker.onFailure(permit);
             logger.log(Level.WARNING, "Device operation failed: " + e.getMessage(), e);
             throw e;
+        } catch (RuntimeException e) {
+            breaker.onFailure(permit);
+            throw e;
         }
     }
 
     @Override
     public void turnOff() throws DeviceException {
-        throttle();
+        long permit = admit();
         try {
             real.turnOff();
+            breaker.onSuccess(permit);
         } catch (DeviceException e) {
+            breaker.onFailure(permit);
             logger.log(Level.WARNING, "Device operation failed: " + e.getMessage(), e);
             throw e;
+        } catch (RuntimeException e) {
+            breaker.onFailure(permit);
+            throw e;
         }
     }
 
     @Override
     public void setTemperature(double temp) throws DeviceException {
-        throttle();
-        real.setTemperature(temp);
+        long permit = admit();
+        try {
+            real.setTemperature(temp);
+            breaker.onSuccess(permit);
+        } catch (DeviceException | RuntimeException e) {
+            breaker.onFailure(permit);
+            throw e;
+        }
     }
 
     @Override
@@ -54,6 +79,24 @@ public class DeviceProxy implements Device {
         real.update(subject, data);
     }
 
+    @Override
+    public Set<String> topics() { return real.topics(); }
+
+    // The breaker goes first so an open device is refused without counting against the rate limit
+    private long admit() throws DeviceException {
+        long permit = breaker.tryAcquire();
+        if (permit == CircuitBreaker.REFUSED) {
+            throw new CircuitOpenException("Circuit open for device " + getId());
+        }
+        try {
+            throttle();
+        } catch (DeviceException e) {
+            breaker.release(permit); // never reached the device
+            throw e;
+        }
+        return permit;
+    }
+
     private void throttle() throws DeviceException {
         long now = System.currentTimeMillis();
         if (now - lastAccess < 50) { // simple rate limit
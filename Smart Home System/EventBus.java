@@ -0,0 +1,199 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+
+/**
+ * Asynchronous topic-based delivery of hub events to observers.
+ *
+ * Each subscriber is pinned to one of a fixed set of worker threads by its id, so events
+ * reach a given subscriber in publish order while different subscribers are served in
+ * parallel. A publish only looks at the subscribers of that topic (plus those that take
+ * every topic) and enqueues; it never runs update() on the caller's thread.
+ *
+ * Worker queues are bounded. When one is full, DROP discards the event at once and BLOCK
+ * waits up to blockMillis for room before discarding it; both outcomes are counted. BLOCK
+ * stalls the publishing thread, so it only suits publishers that can afford to wait.
+ *
+ * After shutdown() publishes are rejected; events still queued are abandoned.
+ */
+public class EventBus {
+    public enum Overflow { DROP, BLOCK }
+
+    private final Worker[] workers;
+    private final Overflow overflow;
+    private final long blockMillis;
+    private final Map<Integer, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final Map<String, Set<Subscription>> byTopic = new ConcurrentHashMap<>();
+    private final Set<Subscription> allTopics = ConcurrentHashMap.newKeySet();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile boolean shutdown;
+    private final Logger logger = Logger.getLogger(EventBus.class.getName());
+
+    public EventBus(int workerCount, int queueCapacity, Overflow overflow, long blockMillis) {
+        if (workerCount <= 0 || queueCapacity <= 0) throw new IllegalArgumentException("workers and capacity must be > 0");
+        this.overflow = Objects.requireNonNull(overflow);
+        this.blockMillis = blockMillis;
+        this.workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker(i, queueCapacity);
+            workers[i].start();
+        }
+    }
+
+    private static final class Subscription {
+        final int id;
+        final Observer observer;
+        final Set<String> topics; // null: every topic
+        volatile boolean active = true;
+
+        Subscription(int id, Observer observer, Set<String> topics) {
+            this.id = id;
+            this.observer = observer;
+            this.topics = topics;
+        }
+    }
+
+    private static final class Delivery {
+        final Subscription to;
+        final Subject source;
+        final Object data;
+
+        Delivery(Subscription to, Subject source, Object data) {
+            this.to = to;
+            this.source = source;
+            this.data = data;
+        }
+    }
+
+    private final class Worker extends Thread {
+        final BlockingQueue<Delivery> queue;
+        final AtomicInteger peak = new AtomicInteger();
+
+        Worker(int index, int capacity) {
+            super("hub-bus-" + index);
+            setDaemon(true);
+            queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Delivery d = queue.take();
+                    if (!d.to.active) continue; // unsubscribed after it was queued
+                    try {
+                        d.to.observer.update(d.source, d.data);
+                        delivered.increment();
+                    } catch (Exception e) {
+                        failed.increment();
+                        logger.log(Level.WARNING, "Failed to notify subscriber " + d.to.id, e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // shutdown
+            }
+        }
+
+        void offer(Delivery d) {
+            boolean queued = queue.offer(d);
+            if (!queued && overflow == Overflow.BLOCK) {
+                blocked.increment();
+                try {
+                    queued = queue.offer(d, blockMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (!queued) {
+                dropped.increment();
+                return;
+            }
+            int depth = queue.size();
+            peak.accumulateAndGet(depth, Math::max);
+        }
+    }
+
+    /**
+     * Subscribes (or re-subscribes) an observer under id. Null topics means every topic;
+     * an empty set means none, which just drops any earlier subscription.
+     */
+    public void subscribe(int id, Observer observer, Set<String> topics) {
+        Objects.requireNonNull(observer);
+        if (topics != null && topics.isEmpty()) {
+            unsubscribe(id);
+            return;
+        }
+        Set<String> copy = topics == null ? null : new HashSet<>(topics);
+        Subscription s = new Subscription(id, observer, copy);
+        Subscription old = subscriptions.put(id, s);
+        if (old != null) detach(old);
+        if (copy == null) {
+            allTopics.add(s);
+        } else {
+            for (String t : copy) byTopic.computeIfAbsent(t, k -> ConcurrentHashMap.newKeySet()).add(s);
+        }
+    }
+
+    public void unsubscribe(int id) {
+        Subscription s = subscriptions.remove(id);
+        if (s != null) detach(s);
+    }
+
+    private void detach(Subscription s) {
+        s.active = false;
+        if (s.topics == null) {
+            allTopics.remove(s);
+        } else {
+            for (String t : s.topics) {
+                Set<Subscription> set = byTopic.get(t);
+                if (set != null) set.remove(s);
+            }
+        }
+    }
+
+    /**
+     * Queues data for every subscriber of topic; returns how many subscribers it was addressed to.
+     * Throws RejectedExecutionException once the bus is shut down.
+     */
+    public int publish(Subject source, String topic, Object data) {
+        if (shutdown) throw new RejectedExecutionException("Event bus is shut down");
+        published.increment();
+        int n = 0;
+        Set<Subscription> subs = byTopic.get(topic);
+        if (subs != null) {
+            for (Subscription s : subs) {
+                workerFor(s.id).offer(new Delivery(s, source, data));
+                n++;
+            }
+        }
+        for (Subscription s : allTopics) {
+            workerFor(s.id).offer(new Delivery(s, source, data));
+            n++;
+        }
+        return n;
+    }
+
+    private Worker workerFor(int id) {
+        return workers[Math.floorMod(id * 0x9E3779B9, workers.length)];
+    }
+
+    public String stats() {
+        StringBuilder depths = new StringBuilder();
+        for (Worker w : workers) {
+            if (depths.length() > 0) depths.append(' ');
+            depths.append(w.queue.size()).append('/').append(w.peak.get());
+        }
+        return String.format("subscribers=%d published=%d delivered=%d dropped=%d blocked=%d failed=%d depth/peak=[%s]",
+                subscriptions.size(), published.sum(), delivered.sum(), dropped.sum(), blocked.sum(), failed.sum(), depths);
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        for (Worker w : workers) w.interrupt();
+    }
+}
@@ -1,10 +1,22 @@
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Consumer;
 import java.util.logging.*;
 public class Hub implements Subject {
+    /** Topic of notifyAllDevices(); device changes are published under their metric name. */
+    public static final String TOPIC_BROADCAST = "broadcast";
+    private static final int BUS_QUEUE_CAPACITY = 1024;
+
     private final Map<Integer, Device> devices = new ConcurrentHashMap<>();
     private final List<Trigger> triggers = new CopyOnWriteArrayList<>();
     private final ScheduledExecutorService internal = Executors.newSingleThreadScheduledExecutor();
+    private final TriggerEngine triggerEngine = new TriggerEngine(internal);
+    private final Map<Integer, Outbox> outboxes = new ConcurrentHashMap<>();
+    private final List<Consumer<DeviceChange>> changeListeners = new CopyOnWriteArrayList<>();
+    // DROP: publishes come from whichever thread dispatches a device's changes, often a trigger
+    // action or command continuation, and one slow subscriber must not stall those
+    private final EventBus bus = new EventBus(Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())),
+            BUS_QUEUE_CAPACITY, EventBus.Overflow.DROP, 0);
     private final Logger logger = Logger.getLogger(Hub.class.getName());
 
     public Hub() {
@@ -13,107 +25,221 @@ public class Hub implements Subject {
     }
 
     private void healthCheck() {
-        logger.fine("Hub health check. Devices count: " + devices.size());
+        logger.fine("Hub health check. Devices count: " + devices.size() + ", bus: " + bus.stats()
+                + ", breakers: " + breakerStats());
     }
 
     @Override
     public void registerDevice(Device d) {
         if (d == null) throw new IllegalArgumentException("Device cannot be null");
         devices.put(d.getId(), d);
+        bus.subscribe(d.getId(), d, d.topics());
         logger.info("Registered device: " + d);
+        publishChanges(d);
     }
 
     @Override
     public void unregisterDevice(Device d) {
         if (d != null) {
             devices.remove(d.getId());
+            bus.unsubscribe(d.getId());
+            outboxes.remove(d.getId());
+            triggerEngine.deviceRemoved(d.getId());
             logger.info("Unregistered device: " + d);
         }
     }
 
+    // Queued on the event bus; devices subscribed to TOPIC_BROADCAST see it on a bus worker
     @Override
     public void notifyAllDevices(Object data) {
-        for (Device d : devices.values()) {
-            try {
-                d.update(this, data);
-            } catch (Exception e) {
-                logger.log(Level.WARNING, "Failed to notify device " + d.getId(), e);
-            }
-        }
+        bus.publish(this, TOPIC_BROADCAST, data);
+    }
+
+    public String eventBusStats() {
+        return bus.stats();
     }
 
     public void addTrigger(Trigger t) {
         triggers.add(t);
+        triggerEngine.add(t);
     }
 
     public void removeTrigger(Trigger t) {
         triggers.remove(t);
+        triggerEngine.remove(t);
     }
 
     public String listTriggers() {
         return triggers.toString();
     }
 
+    // Returns once the first attempt has run; retries continue on the hub's thread
     public void executeCommandOnDevice(int id, DeviceCommand cmd, RetryPolicy retryPolicy) {
+        executeCommandOnDeviceAsync(id, cmd, retryPolicy);
+    }
+
+    /**
+     * Runs cmd with retryPolicy without blocking between attempts. The future completes
+     * once the command succeeded and its changes were published, or with the final failure
+     * (already logged). Retries, and so the publish after a retry, run on the hub's internal
+     * thread; the shared retry timer only schedules them.
+     */
+    public CompletableFuture<Void> executeCommandOnDeviceAsync(int id, DeviceCommand cmd, RetryPolicy retryPolicy) {
+        Device d = devices.get(id);
+        if (d == null) {
+            logger.warning("Device not found: " + id);
+            CompletableFuture<Void> missing = new CompletableFuture<>();
+            missing.completeExceptionally(new DeviceException("Device not found: " + id));
+            return missing;
+        }
+        return retryPolicy.<Void>executeAsync(() -> {
+            switch (cmd) {
+                case TURN_ON:
+                    d.turnOn();
+                    break;
+                case TURN_OFF:
+                    d.turnOff();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported command " + cmd);
+            }
+            return null;
+        }, internal).whenComplete((ok, e) -> {
+            if (e == null) {
+                publishChanges(d);
+            } else if (e instanceof CircuitOpenException) {
+                logger.warning("Command " + cmd + " rejected: " + e.getMessage());
+            } else if (e instanceof RetryExhaustedException) {
+                logger.log(Level.SEVERE, "Failed to execute command after retries for device " + id, e);
+            } else {
+                logger.log(Level.SEVERE, "Unexpected error executing command: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Publishes what changed on a device outside executeCommandOnDevice,
+     * e.g. a new sensor reading.
+     */
+    public void deviceUpdated(int id) {
         Device d = devices.get(id);
         if (d == null) {
             logger.warning("Device not found: " + id);
             return;
         }
-        try {
-            retryPolicy.executeWithRetry(() -> {
-                switch (cmd) {
-                    case TURN_ON:
-                        d.turnOn();
-                        break;
-                    case TURN_OFF:
-                        d.turnOff();
-                        break;
-                    default:
-                        throw new IllegalArgumentException("Unsupported command " + cmd);
+        publishChanges(d);
+    }
+
+    /** Receives every DeviceChange the hub publishes, after triggers have seen it. */
+    public void addChangeListener(Consumer<DeviceChange> listener) {
+        changeListeners.add(Objects.requireNonNull(listener));
+    }
+
+    /** One device's changes waiting for dispatch, in the order they were diffed. */
+    private static final class Outbox {
+        // all guarded by this
+        DeviceStatus last;                                      // last status diffed
+        final Deque<DeviceChange> pending = new ArrayDeque<>();
+        boolean draining;                                       // a thread is dispatching pending
+    }
+
+    // Diffs the device's status against the last one published and emits one DeviceChange per
+    // metric that moved; an unchanged reading produces nothing, so triggers never re-run on it.
+    // Booleans are published as 1/0 so triggers can use them ("on" == 1, "locked" == 0).
+    //
+    // The diff is queued under the device's outbox lock and one thread at a time drains it, so
+    // triggers, the bus and listeners see a device's changes in the order its status moved. A
+    // publish from inside a trigger action (say, the action turned the device off) is queued
+    // behind the change being dispatched instead of overtaking the rest of it.
+    private void publishChanges(Device d) {
+        Outbox box = outboxes.computeIfAbsent(d.getId(), id -> new Outbox());
+        synchronized (box) {
+            DeviceStatus now = d.getStatus();
+            DeviceStatus before = box.last;
+            box.last = now;
+            int id = d.getId();
+            diff(box.pending, id, "temperature", before == null ? null : before.getTemperature(), now.getTemperature());
+            diff(box.pending, id, "on", before == null ? null : flag(before.isOn()), flag(now.isOn()));
+            diff(box.pending, id, "locked", before == null ? null : flag(before.isLocked()), flag(now.isLocked()));
+            if (box.draining || box.pending.isEmpty()) return; // the draining thread will get to it
+            box.draining = true;
+        }
+        while (true) {
+            DeviceChange c;
+            synchronized (box) {
+                c = box.pending.poll();
+                if (c == null) {
+                    box.draining = false;
+                    return;
                 }
-                // after state change notify hub subscribers/triggers
-                notifyAllDevices(null);
-                evaluateTriggers();
-                return null;
-            });
-        } catch (RetryExhaustedException e) {
-            logger.log(Level.SEVERE, "Failed to execute command after retries for device " + id, e);
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Unexpected error executing command: " + e.getMessage(), e);
+            }
+            dispatch(c);
         }
     }
 
-    private void evaluateTriggers() {
-        // For now only temperature-based triggers are implemented
-        for (Trigger t : triggers) {
-            if ("temperature".equalsIgnoreCase(t.getMetric())) {
-                for (Device d : devices.values()) {
-                    DeviceStatus st = d.getStatus();
-                    Double temp = st.getTemperature();
-                    if (temp != null && t.evaluate(temp)) {
-                        try {
-                            t.getAction().run();
-                        } catch (Exception e) {
-                            logger.log(Level.WARNING, "Trigger action failed: " + e.getMessage(), e);
-                        }
-                    }
-                }
+    private void dispatch(DeviceChange c) {
+        logger.fine(c.toString());
+        try {
+            triggerEngine.onChange(c);
+            bus.publish(this, c.getMetric(), c);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Failed to dispatch " + c + ": " + e.getMessage(), e);
+        }
+        for (Consumer<DeviceChange> l : changeListeners) {
+            try {
+                l.accept(c);
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Change listener failed: " + e.getMessage(), e);
             }
         }
     }
 
+    private static void diff(Collection<DeviceChange> out, int id, String metric, Double before, Double now) {
+        if (!Objects.equals(before, now)) out.add(new DeviceChange(id, metric, before, now));
+    }
+
+    private static Double flag(boolean b) {
+        return b ? 1.0 : 0.0;
+    }
+
     public String statusReport() {
         StringBuilder sb = new StringBuilder();
         for (Device d : devices.values()) {
-            sb.append(String.format("Device %d (%s) -> %s%n", d.getId(), d.getType(), d.getStatus()));
+            CircuitBreaker breaker = breakerOf(d);
+            if (breaker == null) {
+                sb.append(String.format("Device %d (%s) -> %s%n", d.getId(), d.getType(), d.getStatus()));
+            } else {
+                sb.append(String.format("Device %d (%s) -> %s [breaker %s]%n", d.getId(), d.getType(), d.getStatus(), breaker));
+            }
         }
         return sb.toString();
     }
 
+    // Breaker totals across proxied devices: how many are in each state, calls refused, times opened
+    public String breakerStats() {
+        Map<CircuitBreaker.State, Integer> byState = new EnumMap<>(CircuitBreaker.State.class);
+        for (CircuitBreaker.State s : CircuitBreaker.State.values()) byState.put(s, 0);
+        long rejected = 0;
+        long opened = 0;
+        for (Device d : devices.values()) {
+            CircuitBreaker breaker = breakerOf(d);
+            if (breaker == null) continue;
+            byState.merge(breaker.getState(), 1, Integer::sum);
+            rejected += breaker.getRejected();
+            opened += breaker.getTimesOpened();
+        }
+        return String.format("closed=%d open=%d half-open=%d rejected=%d opened=%d", byState.get(CircuitBreaker.State.CLOSED),
+                byState.get(CircuitBreaker.State.OPEN), byState.get(CircuitBreaker.State.HALF_OPEN), rejected, opened);
+    }
+
+    private static CircuitBreaker breakerOf(Device d) {
+        return d instanceof DeviceProxy ? ((DeviceProxy) d).getCircuitBreaker() : null;
+    }
+
     public void shutdown() {
         try {
             internal.shutdownNow();
+            bus.shutdown();
         } catch (Exception e) {
             logger.log(Level.WARNING, "Error shutting down hub", e);
         }
@@ -0,0 +1,38 @@
+/**
+ * Caps retries at a fraction of calls so a widespread outage does not multiply the load on
+ * devices that are already failing. Every call earns 'ratio' of a retry, every retry spends
+ * one, and the balance never exceeds 'reserve'. It starts full, so a short burst of failures
+ * can still be retried.
+ */
+public class RetryBudget {
+    private final double ratio;
+    private final double reserve;
+    private double balance;
+
+    public RetryBudget(double ratio, double reserve) {
+        if (!(ratio >= 0)) throw new IllegalArgumentException("ratio >= 0");
+        if (!(reserve >= 1)) throw new IllegalArgumentException("reserve >= 1");
+        this.ratio = ratio;
+        this.reserve = reserve;
+        this.balance = reserve;
+    }
+
+    /** A budget that never refuses a retry. */
+    public static RetryBudget unlimited() {
+        return new RetryBudget(0, Double.POSITIVE_INFINITY);
+    }
+
+    synchronized void deposit() {
+        balance = Math.min(reserve, balance + ratio);
+    }
+
+    synchronized boolean tryWithdraw() {
+        if (balance < 1) return false;
+        balance -= 1;
+        return true;
+    }
+
+    public synchronized double available() {
+        return balance;
+    }
+}
@@ -1,38 +1,129 @@
-import java.util.concurrent.Callable;
+import java.util.concurrent.*;
 import java.util.logging.*;
 
 /**
  * Simple configurable retry policy with exponential backoff for transient errors.
+ *
+ * Delays are jittered: the n-th retry waits a random time between a floor and
+ * cap = min(maxDelay, baseDelay * multiplier^(n-1)), so devices that failed together do not
+ * retry together. The floor is MIN_DELAY_MILLIS (or the cap, if that is lower) so that the
+ * draw never retries a failing device straight away. A RetryBudget shared by every call through this policy bounds how many
+ * retries it makes overall.
+ *
+ * executeAsync never sleeps. The first attempt runs on the caller's thread and later ones
+ * are scheduled on a timer shared by all policies, so any number of pending retries costs
+ * no threads.
  */
 public class RetryPolicy {
+    private static final long DEFAULT_MAX_DELAY_MILLIS = 30_000;
+    static final long MIN_DELAY_MILLIS = 50;
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "retry-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
     private final int maxAttempts;
     private final long baseDelayMillis;
     private final double multiplier;
+    private final long maxDelayMillis;
+    private final RetryBudget budget;
     private final Logger logger = Logger.getLogger(RetryPolicy.class.getName());
 
     public RetryPolicy(int maxAttempts, long baseDelayMillis, double multiplier) {
+        this(maxAttempts, baseDelayMillis, multiplier, DEFAULT_MAX_DELAY_MILLIS, RetryBudget.unlimited());
+    }
+
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, double multiplier, long maxDelayMillis, RetryBudget budget) {
         if (maxAttempts <= 0) throw new IllegalArgumentException("maxAttempts > 0");
         if (baseDelayMillis < 0) throw new IllegalArgumentException("baseDelayMillis >= 0");
+        if (maxDelayMillis < baseDelayMillis) throw new IllegalArgumentException("maxDelayMillis >= baseDelayMillis");
         this.maxAttempts = maxAttempts;
         this.baseDelayMillis = baseDelayMillis;
         this.multiplier = multiplier;
+        this.maxDelayMillis = maxDelayMillis;
+        this.budget = budget == null ? RetryBudget.unlimited() : budget;
     }
 
+    // Blocks the caller between attempts; prefer executeAsync on shared threads
     public <T> T executeWithRetry(Callable<T> task) throws Exception {
+        budget.deposit();
         int attempt = 0;
-        long delay = baseDelayMillis;
         while (true) {
             try {
                 attempt++;
                 return task.call();
+            } catch (CircuitOpenException open) {
+                throw open;
             } catch (DeviceException de) {
-                if (attempt >= maxAttempts) {
-                    throw new RetryExhaustedException("Retries exhausted after " + attempt, de);
-                }
+                long delay = nextDelay(attempt, de);
                 logger.info("Transient failure attempt " + attempt + ". Retrying in " + delay + " ms");
                 Thread.sleep(delay);
-                delay = (long) (delay * multiplier);
             }
         }
     }
+
+    /**
+     * Runs task until it succeeds, fails with anything but a transient DeviceException
+     * (a CircuitOpenException is not transient), or runs out of attempts or budget
+     * (RetryExhaustedException). Retries run on the shared retry timer.
+     */
+    public <T> CompletableFuture<T> executeAsync(Callable<T> task) {
+        return executeAsync(task, null);
+    }
+
+    // Retries are handed to executor instead of running on the timer thread, for slow tasks
+    public <T> CompletableFuture<T> executeAsync(Callable<T> task, Executor executor) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        budget.deposit();
+        attempt(task, 1, executor, result);
+        return result;
+    }
+
+    private <T> void attempt(Callable<T> task, int attempt, Executor executor, CompletableFuture<T> result) {
+        if (result.isDone()) return; // cancelled by the caller
+        try {
+            result.complete(task.call());
+        } catch (CircuitOpenException open) {
+            result.completeExceptionally(open); // retrying cannot help until the breaker probes
+        } catch (DeviceException de) {
+            long delay;
+            try {
+                delay = nextDelay(attempt, de);
+            } catch (RetryExhaustedException e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            logger.info("Transient failure attempt " + attempt + ". Retrying in " + delay + " ms");
+            Runnable next = () -> attempt(task, attempt + 1, executor, result);
+            try {
+                TIMER.schedule(executor == null ? next : () -> handOff(executor, next, result), delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                result.completeExceptionally(e);
+            }
+        } catch (Throwable t) {
+            result.completeExceptionally(t);
+        }
+    }
+
+    private static void handOff(Executor executor, Runnable next, CompletableFuture<?> result) {
+        try {
+            executor.execute(next);
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    // Delay before the retry after 'attempt' failed, or why there is none
+    private long nextDelay(int attempt, DeviceException cause) throws RetryExhaustedException {
+        if (attempt >= maxAttempts) {
+            throw new RetryExhaustedException("Retries exhausted after " + attempt, cause);
+        }
+        if (!budget.tryWithdraw()) {
+            throw new RetryExhaustedException("Retry budget exhausted after " + attempt, cause);
+        }
+        double cap = Math.min(maxDelayMillis, baseDelayMillis * Math.pow(multiplier, attempt - 1));
+        double floor = Math.min(MIN_DELAY_MILLIS, cap);
+        return (long) (floor + ThreadLocalRandom.current().nextDouble() * (cap - floor));
+    }
 }
@@ -4,6 +4,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.*;
 public class SmartHomeApp {
     private static final Logger logger = Logger.getLogger(SmartHomeApp.class.getName());
+    // Shared by every trigger action so its budget limits retries across all of them
+    private static final RetryPolicy ACTION_RETRY = new RetryPolicy(3, 100, 2.0, 5_000, new RetryBudget(0.2, 10));
 
     public static void main(String[] args) {
         configureLogging();
@@ -11,7 +13,7 @@ public class SmartHomeApp {
         // Create core components
         Hub hub = new Hub();
         SchedulerService scheduler = new SchedulerService(hub);
-        RetryPolicy retryPolicy = new RetryPolicy(3, 200, 2.0);
+        RetryPolicy retryPolicy = new RetryPolicy(3, 200, 2.0, 5_000, new RetryBudget(0.2, 10));
 
         // Initialize some devices via factory and proxies
         DeviceFactory factory = new DeviceFactory();
@@ -33,7 +35,7 @@ public class SmartHomeApp {
         // Add a trigger: when thermostat > 75 --> turn off light 1
         hub.addTrigger(new Trigger("temperature", Trigger.Operator.GT, 75, () -> {
             logger.info("Trigger fired: temperature > 75 -> turnOff(1)");
-            safeExecute(() -> light1.turnOff(), retryPolicy);
+            hub.executeCommandOnDevice(1, DeviceCommand.TURN_OFF, ACTION_RETRY);
         }));
 
         // Interactive command loop using an AtomicBoolean flag 
@@ -67,13 +69,17 @@ public class SmartHomeApp {
                     logger.info("Scheduled command added.");
                 } else if (line.startsWith("addTrigger(")) {
                     // Example: addTrigger("temperature", ">", 75, "turnOff(1)")
+                    // optional hysteresis and debounce ms: addTrigger("temperature", ">", 75, "turnOff(1)", 2, 5000)
                     String[] parts = extractCsv(line);
                     String metric = stripQuotes(parts[0]);
                     String op = stripQuotes(parts[1]);
                     double threshold = Double.parseDouble(parts[2]);
                     String action = stripQuotes(parts[3]);
                     Runnable actionRunnable = parseAction(action, hub);
-                    hub.addTrigger(new Trigger(metric, Trigger.Operator.fromSymbol(op), threshold, actionRunnable));
+                    double hysteresis = parts.length > 4 ? Double.parseDouble(parts[4]) : 0;
+                    long debounceMillis = parts.length > 5 ? Long.parseLong(parts[5]) : 0;
+                    hub.addTrigger(new Trigger(metric, Trigger.Operator.fromSymbol(op), threshold, hysteresis,
+                            debounceMillis, actionRunnable));
                     logger.info("Trigger added.");
                 } else if (line.startsWith("addDevice(")) {
                     // addDevice({id:4, type:'light'})
@@ -87,6 +93,10 @@ public class SmartHomeApp {
                     System.out.println(scheduler.listSchedules());
                 } else if ("triggers".equalsIgnoreCase(line)) {
                     System.out.println(hub.listTriggers());
+                } else if ("bus".equalsIgnoreCase(line)) {
+                    System.out.println(hub.eventBusStats());
+                } else if ("breakers".equalsIgnoreCase(line)) {
+                    System.out.println(hub.breakerStats());
                 } else if ("help".equalsIgnoreCase(line)) {
                     printHelp();
                 } else {
@@ -121,10 +131,13 @@ public class SmartHomeApp {
         System.out.println("turnOff(<id>) - turn device off");
         System.out.println("setSchedule(<id>, \"HH:mm\", \"Turn On\"/\"Turn Off\")");
         System.out.println("addTrigger(\"metric\",\"op\", threshold, \"action\") e.g. addTrigger(\"temperature\", \">\", 75, \"turnOff(1)\")");
+        System.out.println("  optional hysteresis, debounce ms: addTrigger(\"temperature\", \">\", 75, \"turnOff(1)\", 2, 5000)");
         System.out.println("addDevice({id:4, type:'light'})");
         System.out.println("status - show status report");
         System.out.println("scheduled - list scheduled tasks");
         System.out.println("triggers - list triggers");
+        System.out.println("bus - event bus delivery stats");
+        System.out.println("breakers - circuit breaker totals (per device in status)");
         System.out.println("help");
         System.out.println("exit");
         System.out.println();
@@ -173,25 +186,12 @@ public class SmartHomeApp {
         action = action.trim();
         if (action.startsWith("turnOff(")) {
             int id = Integer.parseInt(action.substring(action.indexOf('(') + 1, action.indexOf(')')));
-            return () -> hub.executeCommandOnDevice(id, DeviceCommand.TURN_OFF, new RetryPolicy(3, 100, 2.0));
+            return () -> hub.executeCommandOnDevice(id, DeviceCommand.TURN_OFF, ACTION_RETRY);
         } else if (action.startsWith("turnOn(")) {
             int id = Integer.parseInt(action.substring(action.indexOf('(') + 1, action.indexOf(')')));
-            return () -> hub.executeCommandOnDevice(id, DeviceCommand.TURN_ON, new RetryPolicy(3, 100, 2.0));
+            return () -> hub.executeCommandOnDevice(id, DeviceCommand.TURN_ON, ACTION_RETRY);
         } else {
             return () -> logger.info("No-op action: " + action);
         }
     }
-
-    private static void safeExecute(Runnable r, RetryPolicy retryPolicy) {
-        try {
-            retryPolicy.executeWithRetry(() -> {
-                r.run();
-                return null;
-            });
-        } catch (RetryExhaustedException e) {
-            logger.log(Level.WARNING, "Operation failed after retries: " + e.getMessage(), e);
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Unexpected failure: " + e.getMessage(), e);
-        }
-    }
 }
@@ -1,3 +1,4 @@
+import java.util.Set;
 public interface Subject {
     void registerDevice(Device d);
     void unregisterDevice(Device d);
@@ -5,4 +6,7 @@ public interface Subject {
 }
 public interface Observer {
     void update(Subject subject, Object data);
+
+    // Topics whose events update() should receive; null means every topic, empty means none
+    default Set<String> topics() { return null; }
 }
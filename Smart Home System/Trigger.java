@@ -13,15 +13,27 @@ public class Trigger {
     private final String metric;
     private final Operator op;
     private final double threshold;
+    private final double hysteresis;    // how far back past the threshold a value must go to re-arm
+    private final long debounceMillis;  // how long the condition must hold before the action runs
     private final Runnable action;
     public Trigger(String metric, Operator op, double threshold, Runnable action) {
+        this(metric, op, threshold, 0, 0, action);
+    }
+    public Trigger(String metric, Operator op, double threshold, double hysteresis, long debounceMillis, Runnable action) {
+        if (!(hysteresis >= 0)) throw new IllegalArgumentException("hysteresis >= 0");
+        if (debounceMillis < 0) throw new IllegalArgumentException("debounceMillis >= 0");
         this.metric = Objects.requireNonNull(metric);
         this.op = Objects.requireNonNull(op);
         this.threshold = threshold;
+        this.hysteresis = hysteresis;
+        this.debounceMillis = debounceMillis;
         this.action = Objects.requireNonNull(action);
     }
     public String getMetric() { return metric; }
     public Operator getOp() { return op; }
+    public double getThreshold() { return threshold; }
+    public double getHysteresis() { return hysteresis; }
+    public long getDebounceMillis() { return debounceMillis; }
     public Runnable getAction() { return action; }
     public boolean evaluate(double value) {
         switch (op) {
@@ -31,8 +43,22 @@ public class Trigger {
             default: return false;
         }
     }
+    // True once a value has left the band around the threshold; with no hysteresis, !evaluate(value)
+    public boolean releasedBy(double value) {
+        if (Double.isNaN(value)) return !evaluate(value);
+        switch (op) {
+            case GT: return value <= threshold - hysteresis;
+            case LT: return value >= threshold + hysteresis;
+            case EQ: return hysteresis == 0 ? !evaluate(value) : Math.abs(value - threshold) > hysteresis;
+            default: return true;
+        }
+    }
     @Override
     public String toString() {
-        return String.format("{condition: \"%s %s %.2f\"}", metric, op, threshold);
+        if (hysteresis == 0 && debounceMillis == 0) {
+            return String.format("{condition: \"%s %s %.2f\"}", metric, op, threshold);
+        }
+        return String.format("{condition: \"%s %s %.2f\", hysteresis: %.2f, debounce: %dms}", metric, op, threshold,
+                hysteresis, debounceMillis);
     }
 }
@@ -0,0 +1,116 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+/**
+ * Edge-triggered trigger evaluation driven by DeviceChange events.
+ *
+ * For every device the engine remembers the last value of each metric and which triggers
+ * are currently active. A trigger's action runs when its condition becomes true for a device
+ * (false -> true), not on every reading while it stays true. It re-arms only once the value
+ * has moved back past the trigger's hysteresis band, so readings jittering around the
+ * threshold do not fire it again. With a debounce window the condition must hold for that
+ * long before the action runs; a release inside the window cancels it.
+ *
+ * Candidate triggers for a reading come from the TriggerIndex; only the device that changed
+ * is looked at. Actions run outside the engine's locks, on the caller's thread or, after a
+ * debounce, on the timer's.
+ */
+public class TriggerEngine {
+    private final TriggerIndex index = new TriggerIndex();
+    private final Map<Integer, DeviceState> devices = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+    private final Logger logger = Logger.getLogger(TriggerEngine.class.getName());
+
+    public TriggerEngine(ScheduledExecutorService timer) {
+        this.timer = Objects.requireNonNull(timer);
+    }
+
+    private static final class DeviceState {
+        final Map<String, Double> values = new HashMap<>();          // metric -> last reading
+        final Map<Trigger, Activation> active = new HashMap<>();     // triggers whose condition holds
+    }
+
+    /** Identity of one false -> true transition; a pending debounce fires only if it is still current. */
+    private static final class Activation { }
+
+    // A trigger added while its condition already holds for a device counts as a transition
+    public void add(Trigger t) {
+        index.add(t);
+        String metric = key(t.getMetric());
+        for (Map.Entry<Integer, DeviceState> e : devices.entrySet()) {
+            List<Trigger> fire = new ArrayList<>(1);
+            DeviceState s = e.getValue();
+            synchronized (s) {
+                Double v = s.values.get(metric);
+                if (v != null && t.evaluate(v) && !s.active.containsKey(t)) activate(e.getKey(), s, t, fire);
+            }
+            run(fire);
+        }
+    }
+
+    public void remove(Trigger t) {
+        index.remove(t);
+        for (DeviceState s : devices.values()) {
+            synchronized (s) {
+                s.active.remove(t); // also cancels a pending debounce
+            }
+        }
+    }
+
+    public void onChange(DeviceChange change) {
+        DeviceState s = devices.computeIfAbsent(change.getDeviceId(), id -> new DeviceState());
+        String metric = key(change.getMetric());
+        Double value = change.getCurrent();
+        List<Trigger> fire = new ArrayList<>();
+        synchronized (s) {
+            if (value == null) s.values.remove(metric);
+            else s.values.put(metric, value);
+            s.active.keySet().removeIf(t -> key(t.getMetric()).equals(metric) && (value == null || t.releasedBy(value)));
+            if (value != null) {
+                for (Trigger t : index.matching(metric, value)) {
+                    if (!s.active.containsKey(t)) activate(change.getDeviceId(), s, t, fire);
+                }
+            }
+        }
+        run(fire);
+    }
+
+    public void deviceRemoved(int deviceId) {
+        DeviceState s = devices.remove(deviceId);
+        if (s != null) {
+            synchronized (s) {
+                s.active.clear();
+            }
+        }
+    }
+
+    private void activate(int deviceId, DeviceState s, Trigger t, List<Trigger> fire) {
+        Activation a = new Activation();
+        s.active.put(t, a);
+        if (t.getDebounceMillis() == 0) {
+            fire.add(t);
+            return;
+        }
+        timer.schedule(() -> {
+            synchronized (s) {
+                if (s.active.get(t) != a || devices.get(deviceId) != s) return; // released, removed or re-armed
+            }
+            run(Collections.singletonList(t));
+        }, t.getDebounceMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void run(List<Trigger> fire) {
+        for (Trigger t : fire) {
+            try {
+                t.getAction().run();
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Trigger action failed: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static String key(String metric) {
+        return metric.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,85 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Triggers indexed by metric, then by operator and threshold, so one device reading finds
+ * the triggers it satisfies in O(log n + k) instead of testing every trigger:
+ * GT triggers fire for thresholds below the value, LT for thresholds above it, EQ for an
+ * exact match. Lookups take no locks; adds and removes are serialized and replace the
+ * affected bucket.
+ */
+public class TriggerIndex {
+    private final Map<String, MetricIndex> byMetric = new ConcurrentHashMap<>();
+
+    private static final class MetricIndex {
+        // threshold -> triggers with that threshold, in the order they were added
+        final NavigableMap<Double, Trigger[]> gt = new ConcurrentSkipListMap<>();
+        final NavigableMap<Double, Trigger[]> lt = new ConcurrentSkipListMap<>();
+        final NavigableMap<Double, Trigger[]> eq = new ConcurrentSkipListMap<>();
+
+        NavigableMap<Double, Trigger[]> forOperator(Trigger.Operator op) {
+            switch (op) {
+                case GT: return gt;
+                case LT: return lt;
+                default: return eq;
+            }
+        }
+
+        boolean isEmpty() { return gt.isEmpty() && lt.isEmpty() && eq.isEmpty(); }
+    }
+
+    public synchronized void add(Trigger t) {
+        NavigableMap<Double, Trigger[]> bucket = byMetric.computeIfAbsent(key(t.getMetric()), m -> new MetricIndex())
+                .forOperator(t.getOp());
+        Double threshold = thresholdKey(t);
+        Trigger[] old = bucket.get(threshold);
+        Trigger[] next = old == null ? new Trigger[1] : Arrays.copyOf(old, old.length + 1);
+        next[next.length - 1] = t;
+        bucket.put(threshold, next);
+    }
+
+    public synchronized boolean remove(Trigger t) {
+        MetricIndex index = byMetric.get(key(t.getMetric()));
+        if (index == null) return false;
+        NavigableMap<Double, Trigger[]> bucket = index.forOperator(t.getOp());
+        Double threshold = thresholdKey(t);
+        Trigger[] old = bucket.get(threshold);
+        int i = old == null ? -1 : Arrays.asList(old).indexOf(t);
+        if (i < 0) return false;
+        if (old.length == 1) {
+            bucket.remove(threshold);
+            if (index.isEmpty()) byMetric.remove(key(t.getMetric()));
+        } else {
+            Trigger[] next = new Trigger[old.length - 1];
+            System.arraycopy(old, 0, next, 0, i);
+            System.arraycopy(old, i + 1, next, i, old.length - i - 1);
+            bucket.put(threshold, next);
+        }
+        return true;
+    }
+
+    // Triggers whose condition holds for this reading, same answer as Trigger.evaluate(value)
+    public List<Trigger> matching(String metric, double value) {
+        MetricIndex index = byMetric.get(key(metric));
+        if (index == null) return Collections.emptyList();
+        List<Trigger> out = new ArrayList<>();
+        if (!Double.isNaN(value)) { // NaN is neither above nor below anything
+            double v = value + 0.0; // -0.0 and 0.0 compare equal with > and <
+            for (Trigger[] ts : index.gt.headMap(v, false).values()) Collections.addAll(out, ts);
+            for (Trigger[] ts : index.lt.subMap(v, false, Double.POSITIVE_INFINITY, true).values()) Collections.addAll(out, ts);
+        }
+        Trigger[] exact = index.eq.get(value);
+        if (exact != null) Collections.addAll(out, exact);
+        return out;
+    }
+
+    private static String key(String metric) {
+        return metric.toLowerCase(Locale.ROOT);
+    }
+
+    // EQ keeps Double.compare semantics; GT and LT use numeric order, where -0.0 == 0.0
+    private static Double thresholdKey(Trigger t) {
+        return t.getOp() == Trigger.Operator.EQ ? t.getThreshold() : t.getThreshold() + 0.0;
+    }
+}
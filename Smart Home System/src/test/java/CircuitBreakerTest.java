@@ -0,0 +1,119 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class CircuitBreakerTest {
+    private static final long OPEN_MILLIS = 50;
+
+    // window 4, open at 50% once 2 calls are recorded; reopening doubles the interval up to 200ms
+    private final CircuitBreaker breaker = new CircuitBreaker(4, 2, 0.5, OPEN_MILLIS, 200);
+
+    private void succeed() {
+        breaker.onSuccess(acquire());
+    }
+
+    private void fail() {
+        breaker.onFailure(acquire());
+    }
+
+    private long acquire() {
+        long permit = breaker.tryAcquire();
+        assertNotEquals(CircuitBreaker.REFUSED, permit, breaker.toString());
+        return permit;
+    }
+
+    private void assertRefused() {
+        long before = breaker.getRejected();
+        assertEquals(CircuitBreaker.REFUSED, breaker.tryAcquire());
+        assertEquals(before + 1, breaker.getRejected());
+    }
+
+    @Test
+    void opensOnceTheFailureRateIsReachedOverEnoughCalls() {
+        fail(); // one call is not enough to judge
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        succeed();
+        succeed();
+        fail();  // 2 of 4
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(1, breaker.getTimesOpened());
+        assertRefused();
+    }
+
+    @Test
+    void theWindowForgetsOldOutcomes() {
+        fail();
+        succeed();
+        succeed();
+        succeed();
+        succeed(); // the failure slides out: 0 of 4
+        succeed();
+        fail();    // 1 of 4
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void aSuccessfulProbeClosesWithACleanWindow() throws InterruptedException {
+        fail();
+        fail();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(OPEN_MILLIS + 10);
+        long probe = acquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertRefused(); // one probe at a time
+        breaker.onSuccess(probe);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.toString().startsWith("CLOSED failures=0/0"), breaker.toString());
+        fail(); // a fresh window needs minimumCalls again
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void aFailedProbeReopensForTwiceAsLong() throws InterruptedException {
+        fail();
+        fail();
+        Thread.sleep(OPEN_MILLIS + 10);
+        fail(); // the probe
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getTimesOpened());
+        Thread.sleep(OPEN_MILLIS + 10);
+        assertRefused(); // now 100ms
+        Thread.sleep(OPEN_MILLIS + 10);
+        acquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    void aReleasedProbeLetsTheNextCallProbe() throws InterruptedException {
+        fail();
+        fail();
+        Thread.sleep(OPEN_MILLIS + 10);
+        breaker.release(acquire()); // throttled before reaching the device
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        succeed();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void outcomesFromAnEarlierGenerationAreIgnored() throws InterruptedException {
+        long slow = acquire(); // admitted while closed, still running
+        fail();
+        fail();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        breaker.onFailure(slow);
+        assertEquals(1, breaker.getTimesOpened());
+
+        Thread.sleep(OPEN_MILLIS + 10);
+        long probe = acquire();
+        breaker.onSuccess(slow);  // must not close the breaker for the probe
+        breaker.release(slow);    // nor free the probe slot
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertRefused();
+
+        breaker.onSuccess(probe);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onFailure(probe); // reported twice: the second is stale
+        breaker.onFailure(slow);
+        assertTrue(breaker.toString().startsWith("CLOSED failures=0/0"), breaker.toString());
+    }
+}
@@ -0,0 +1,133 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class EventBusTest {
+    private final List<EventBus> buses = new ArrayList<>();
+
+    @AfterEach
+    void shutdown() {
+        for (EventBus b : buses) b.shutdown();
+    }
+
+    private EventBus bus(int workers, int capacity, EventBus.Overflow overflow, long blockMillis) {
+        EventBus b = new EventBus(workers, capacity, overflow, blockMillis);
+        buses.add(b);
+        return b;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+
+    /** Records what it is sent; optionally holds the worker until released. */
+    private static final class Recorder implements Observer {
+        final List<Object> received = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release;
+
+        Recorder(boolean hold) {
+            release = new CountDownLatch(hold ? 1 : 0);
+        }
+
+        @Override
+        public void update(Subject subject, Object data) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            received.add(data);
+        }
+    }
+
+    @Test
+    void eachSubscriberGetsItsTopicsInPublishOrder() throws InterruptedException {
+        EventBus bus = bus(4, 2048, EventBus.Overflow.DROP, 0);
+        Recorder temperature = new Recorder(false), everything = new Recorder(false);
+        bus.subscribe(1, temperature, Set.of("temperature"));
+        bus.subscribe(2, everything, null);
+        for (int i = 0; i < 1000; i++) bus.publish(null, i % 2 == 0 ? "temperature" : "on", i);
+        await(() -> everything.received.size() == 1000 && temperature.received.size() == 500);
+        for (int i = 0; i < 1000; i++) assertEquals(i, everything.received.get(i));
+        for (int i = 0; i < 500; i++) assertEquals(2 * i, temperature.received.get(i));
+        assertEquals(1, bus.publish(null, "locked", "catch-all only"));
+    }
+
+    @Test
+    void resubscribingReplacesTopicsAndAnEmptySetUnsubscribes() throws InterruptedException {
+        EventBus bus = bus(1, 16, EventBus.Overflow.DROP, 0);
+        Recorder r = new Recorder(false);
+        bus.subscribe(1, r, Set.of("on"));
+        bus.subscribe(1, r, Set.of("locked"));
+        assertEquals(0, bus.publish(null, "on", "old topic"));
+        assertEquals(1, bus.publish(null, "locked", "new topic"));
+        await(() -> r.received.size() == 1);
+        bus.subscribe(1, r, Collections.emptySet());
+        assertEquals(0, bus.publish(null, "locked", "gone"));
+        assertTrue(bus.stats().startsWith("subscribers=0 "));
+    }
+
+    @Test
+    void dropDiscardsAtOnceWhenTheQueueIsFull() throws InterruptedException {
+        EventBus bus = bus(1, 1, EventBus.Overflow.DROP, 0);
+        Recorder slow = new Recorder(true);
+        bus.subscribe(1, slow, null);
+        bus.publish(null, "on", 0);
+        assertTrue(slow.entered.await(2, TimeUnit.SECONDS)); // the worker holds event 0
+        long start = System.nanoTime();
+        for (int i = 1; i <= 9; i++) bus.publish(null, "on", i); // 1 is queued, the rest do not fit
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        slow.release.countDown();
+        await(() -> slow.received.size() == 2);
+        assertEquals(List.of(0, 1), slow.received);
+        assertTrue(bus.stats().contains("dropped=8 blocked=0"), bus.stats());
+    }
+
+    @Test
+    void blockWaitsForRoomBeforeDropping() throws InterruptedException {
+        EventBus bus = bus(1, 1, EventBus.Overflow.BLOCK, 50);
+        Recorder slow = new Recorder(true);
+        bus.subscribe(1, slow, null);
+        bus.publish(null, "on", 0);
+        assertTrue(slow.entered.await(2, TimeUnit.SECONDS));
+        bus.publish(null, "on", 1);
+        long start = System.nanoTime();
+        bus.publish(null, "on", 2);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(45));
+        slow.release.countDown();
+        await(() -> slow.received.size() == 2);
+        assertTrue(bus.stats().contains("dropped=1 blocked=1"), bus.stats());
+    }
+
+    @Test
+    void aFailingSubscriberDoesNotStopTheOthers() throws InterruptedException {
+        EventBus bus = bus(1, 16, EventBus.Overflow.DROP, 0);
+        Recorder r = new Recorder(false);
+        bus.subscribe(1, (subject, data) -> { throw new IllegalStateException("broken device"); }, null);
+        bus.subscribe(2, r, null);
+        bus.publish(null, "on", "a");
+        bus.publish(null, "on", "b");
+        await(() -> r.received.size() == 2);
+        await(() -> bus.stats().contains("failed=2"));
+    }
+
+    @Test
+    void publishAfterShutdownIsRejected() {
+        EventBus bus = bus(1, 16, EventBus.Overflow.DROP, 0);
+        bus.subscribe(1, new Recorder(false), null);
+        bus.shutdown();
+        assertThrows(RejectedExecutionException.class, () -> bus.publish(null, "on", "late"));
+        assertTrue(bus.stats().contains("published=0"));
+    }
+}
@@ -0,0 +1,106 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class HubTest {
+    private final Hub hub = new Hub();
+    private final List<DeviceChange> seen = Collections.synchronizedList(new ArrayList<>());
+
+    @AfterEach
+    void shutdown() {
+        hub.shutdown();
+    }
+
+    private List<DeviceChange> seen(int deviceId, String metric) {
+        List<DeviceChange> out = new ArrayList<>();
+        synchronized (seen) {
+            for (DeviceChange c : seen) {
+                if (c.getDeviceId() == deviceId && c.getMetric().equals(metric)) out.add(c);
+            }
+        }
+        return out;
+    }
+
+    // Each change starts where the one before it ended
+    private static void assertChained(List<DeviceChange> changes) {
+        for (int i = 1; i < changes.size(); i++) {
+            assertEquals(changes.get(i - 1).getCurrent(), changes.get(i).getPrevious(), "change " + i + " of " + changes);
+        }
+    }
+
+    @Test
+    void aPublishFromATriggerActionWaitsBehindTheRestOfTheDiff() throws Exception {
+        ThermostatDevice thermostat = new ThermostatDevice(1, 70);
+        hub.addChangeListener(seen::add);
+        hub.registerDevice(thermostat);
+        hub.addTrigger(new Trigger("temperature", Trigger.Operator.GT, 75,
+                () -> hub.executeCommandOnDevice(1, DeviceCommand.TURN_OFF, new RetryPolicy(1, 10, 2.0))));
+
+        // one diff: temperature 70 -> 80, then on 0 -> 1; the trigger turns it off while the first is dispatched
+        thermostat.setTemperature(80);
+        thermostat.turnOn();
+        hub.deviceUpdated(1);
+
+        List<DeviceChange> on = seen(1, "on");
+        assertChained(on);
+        assertEquals(List.of(0.0, 1.0, 0.0), on.stream().map(DeviceChange::getCurrent).toList());
+        assertFalse(thermostat.getStatus().isOn());
+    }
+
+    @Test
+    void aRetriedCommandPublishesOffTheRetryTimer() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        LightDevice flaky = new LightDevice(3) {
+            @Override
+            public synchronized void turnOn() throws DeviceException {
+                if (calls.incrementAndGet() == 1) throw new DeviceException("no answer");
+                super.turnOn();
+            }
+        };
+        List<String> publishedOn = Collections.synchronizedList(new ArrayList<>());
+        hub.registerDevice(flaky);
+        hub.addChangeListener(c -> publishedOn.add(Thread.currentThread().getName()));
+        hub.executeCommandOnDeviceAsync(3, DeviceCommand.TURN_ON, new RetryPolicy(3, 20, 1.0, 20, RetryBudget.unlimited()))
+                .get(5, TimeUnit.SECONDS);
+        assertEquals(2, calls.get());
+        assertEquals(1, publishedOn.size());
+        assertNotEquals("retry-timer", publishedOn.get(0));
+        assertNotEquals(Thread.currentThread().getName(), publishedOn.get(0));
+    }
+
+    @Test
+    void concurrentUpdatesOfOneDeviceAreDispatchedInOrder() throws Exception {
+        LightDevice light = new LightDevice(2);
+        hub.addChangeListener(seen::add);
+        hub.registerDevice(light);
+        int threads = 4;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                done.add(pool.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 2000; i++) {
+                        if (random.nextBoolean()) light.turnOn();
+                        else light.turnOff();
+                        hub.deviceUpdated(2);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : done) f.get(30, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+        List<DeviceChange> on = seen(2, "on");
+        assertTrue(on.size() > 1);
+        assertChained(on);
+        hub.deviceUpdated(2); // whatever the last toggle was, it has been published
+        assertEquals(light.getStatus().isOn() ? 1.0 : 0.0, seen(2, "on").get(seen(2, "on").size() - 1).getCurrent());
+    }
+}
@@ -0,0 +1,66 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class RetryBudgetTest {
+    @Test
+    void startsFullAndEarnsARetryPerCallsWorthOfRatio() {
+        RetryBudget budget = new RetryBudget(0.5, 2);
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+        budget.deposit();
+        assertFalse(budget.tryWithdraw()); // half a retry is not one
+        budget.deposit();
+        assertTrue(budget.tryWithdraw());
+        assertEquals(0.0, budget.available());
+    }
+
+    @Test
+    void theBalanceNeverExceedsTheReserve() {
+        RetryBudget budget = new RetryBudget(0.2, 3);
+        for (int i = 0; i < 100; i++) budget.deposit();
+        assertEquals(3.0, budget.available());
+    }
+
+    @Test
+    void unlimitedNeverRefuses() {
+        RetryBudget budget = RetryBudget.unlimited();
+        for (int i = 0; i < 10_000; i++) assertTrue(budget.tryWithdraw());
+    }
+
+    @Test
+    void concurrentWithdrawalsNeverOverdraw() throws Exception {
+        RetryBudget budget = new RetryBudget(0, 1000);
+        AtomicInteger granted = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            for (int t = 0; t < 4; t++) {
+                pool.submit(() -> {
+                    for (int i = 0; i < 1000; i++) if (budget.tryWithdraw()) granted.incrementAndGet();
+                });
+            }
+        } finally {
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1000, granted.get());
+    }
+
+    @Test
+    void aPolicyStopsRetryingWhenItsBudgetIsSpent() {
+        RetryPolicy policy = new RetryPolicy(5, 0, 2.0, 0, new RetryBudget(0, 1));
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<Void> result = policy.executeAsync(() -> {
+            attempts.incrementAndGet();
+            throw new DeviceException("offline");
+        });
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(2, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof RetryExhaustedException);
+        assertTrue(e.getCause().getMessage().startsWith("Retry budget exhausted"));
+        assertEquals(2, attempts.get()); // the reserve paid for one retry
+    }
+}
@@ -0,0 +1,86 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class RetryPolicyTest {
+    // Fails the first 'failures' calls, recording when and on which thread each call ran
+    private static final class Flaky implements Callable<String> {
+        final int failures;
+        final List<Long> at = Collections.synchronizedList(new ArrayList<>());
+        final List<String> threads = Collections.synchronizedList(new ArrayList<>());
+
+        Flaky(int failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public String call() throws DeviceException {
+            at.add(System.nanoTime());
+            threads.add(Thread.currentThread().getName());
+            if (at.size() <= failures) throw new DeviceException("transient");
+            return "ok";
+        }
+    }
+
+    @Test
+    void jitterNeverRetriesSoonerThanTheFloor() throws Exception {
+        RetryPolicy policy = new RetryPolicy(6, 80, 1.0, 80, RetryBudget.unlimited());
+        Flaky flaky = new Flaky(5);
+        assertEquals("ok", policy.executeAsync(flaky).get(5, TimeUnit.SECONDS));
+        for (int i = 1; i < flaky.at.size(); i++) {
+            long gap = TimeUnit.NANOSECONDS.toMillis(flaky.at.get(i) - flaky.at.get(i - 1));
+            assertTrue(gap >= RetryPolicy.MIN_DELAY_MILLIS - 1, "retry " + i + " after " + gap + " ms");
+        }
+    }
+
+    @Test
+    void aCapBelowTheFloorIsTheDelay() throws Exception {
+        RetryPolicy policy = new RetryPolicy(3, 0, 2.0, 0, RetryBudget.unlimited());
+        Flaky flaky = new Flaky(2);
+        long start = System.nanoTime();
+        assertEquals("ok", policy.executeAsync(flaky).get(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < RetryPolicy.MIN_DELAY_MILLIS);
+    }
+
+    @Test
+    void givesUpAfterMaxAttempts() {
+        RetryPolicy policy = new RetryPolicy(3, 0, 2.0, 0, RetryBudget.unlimited());
+        Flaky flaky = new Flaky(10);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> policy.executeAsync(flaky).get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof RetryExhaustedException);
+        assertEquals(3, flaky.at.size());
+    }
+
+    @Test
+    void anOpenCircuitIsNotRetried() {
+        RetryPolicy policy = new RetryPolicy(5, 0, 2.0, 0, RetryBudget.unlimited());
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<Object> result = policy.executeAsync(() -> {
+            attempts.incrementAndGet();
+            throw new CircuitOpenException("open");
+        });
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof CircuitOpenException);
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void retriesRunOnTheGivenExecutorNotTheTimer() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "device-calls"));
+        try {
+            // 20ms retries: the future is still pending when thenApply is attached
+            RetryPolicy policy = new RetryPolicy(3, 20, 1.0, 20, RetryBudget.unlimited());
+            Flaky flaky = new Flaky(2);
+            CompletableFuture<String> completedOn = policy.executeAsync(flaky, executor)
+                    .thenApply(ok -> Thread.currentThread().getName());
+            assertEquals("device-calls", completedOn.get(5, TimeUnit.SECONDS));
+            assertEquals(List.of(Thread.currentThread().getName(), "device-calls", "device-calls"), flaky.threads);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class TriggerEngineTest {
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final TriggerEngine engine = new TriggerEngine(timer);
+    private final AtomicInteger fired = new AtomicInteger();
+
+    @AfterEach
+    void shutdown() {
+        timer.shutdownNow();
+    }
+
+    private Trigger above(double threshold, double hysteresis, long debounceMillis) {
+        return new Trigger("temperature", Trigger.Operator.GT, threshold, hysteresis, debounceMillis, fired::incrementAndGet);
+    }
+
+    private void reading(int deviceId, double value) {
+        engine.onChange(new DeviceChange(deviceId, "temperature", null, value));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void firesOnTheRisingEdgeOnly() {
+        engine.add(above(75, 0, 0));
+        reading(1, 76);
+        reading(1, 78);
+        reading(1, 80);
+        assertEquals(1, fired.get());
+        reading(1, 75); // released: not above 75 any more
+        reading(1, 76);
+        assertEquals(2, fired.get());
+    }
+
+    @Test
+    void hysteresisKeepsJitterAroundTheThresholdFromRefiring() {
+        engine.add(above(75, 2, 0));
+        reading(1, 76);
+        reading(1, 74);  // still inside the band
+        reading(1, 76);
+        reading(1, 73.5);
+        reading(1, 75.5);
+        assertEquals(1, fired.get());
+        reading(1, 73);  // threshold - hysteresis: re-armed
+        reading(1, 76);
+        assertEquals(2, fired.get());
+    }
+
+    @Test
+    void devicesAreArmedSeparately() {
+        engine.add(above(75, 2, 0));
+        reading(1, 80);
+        reading(2, 80);
+        reading(2, 81);
+        assertEquals(2, fired.get());
+        engine.deviceRemoved(1);
+        reading(1, 80); // a device that comes back starts over
+        assertEquals(3, fired.get());
+    }
+
+    @Test
+    void aTriggerAddedWhileItsConditionHoldsFiresOnce() {
+        reading(1, 80);
+        engine.add(above(75, 0, 0));
+        assertEquals(1, fired.get());
+        reading(1, 81);
+        assertEquals(1, fired.get());
+    }
+
+    @Test
+    void debounceWaitsForTheConditionToHold() throws InterruptedException {
+        engine.add(above(75, 0, 50));
+        reading(1, 80);
+        assertEquals(0, fired.get());
+        await(() -> fired.get() == 1);
+        reading(1, 81);
+        Thread.sleep(100);
+        assertEquals(1, fired.get());
+    }
+
+    @Test
+    void aReleaseInsideTheDebounceWindowCancelsTheAction() throws InterruptedException {
+        engine.add(above(75, 0, 100));
+        reading(1, 80);
+        reading(1, 70);
+        reading(1, 80);
+        reading(1, 70);
+        Thread.sleep(250);
+        assertEquals(0, fired.get());
+    }
+
+    @Test
+    void removingATriggerCancelsItsPendingAction() throws InterruptedException {
+        Trigger t = above(75, 0, 100);
+        engine.add(t);
+        reading(1, 80);
+        engine.remove(t);
+        reading(2, 80);
+        Thread.sleep(250);
+        assertEquals(0, fired.get());
+    }
+}
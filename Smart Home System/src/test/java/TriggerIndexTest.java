@@ -0,0 +1,107 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+class TriggerIndexTest {
+    private static final double[] EDGES = {
+        Double.NaN, -0.0, 0.0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+        Double.MIN_VALUE, -Double.MIN_VALUE, 75.0, 75.5, -3.0
+    };
+
+    private static Trigger trigger(String metric, Trigger.Operator op, double threshold) {
+        return new Trigger(metric, op, threshold, () -> { });
+    }
+
+    private static Set<Trigger> expected(List<Trigger> all, String metric, double value) {
+        Set<Trigger> out = new HashSet<>();
+        for (Trigger t : all) {
+            if (t.getMetric().equalsIgnoreCase(metric) && t.evaluate(value)) out.add(t);
+        }
+        return out;
+    }
+
+    @Test
+    void matchesWhatEvaluateSaysForEveryEdgeValue() {
+        TriggerIndex index = new TriggerIndex();
+        List<Trigger> all = new ArrayList<>();
+        for (Trigger.Operator op : Trigger.Operator.values()) {
+            for (double threshold : EDGES) {
+                Trigger t = trigger("temperature", op, threshold);
+                all.add(t);
+                index.add(t);
+            }
+        }
+        for (double value : EDGES) {
+            List<Trigger> got = index.matching("temperature", value);
+            assertEquals(expected(all, "temperature", value), new HashSet<>(got), "value " + value);
+            assertEquals(got.size(), new HashSet<>(got).size(), "no duplicates for " + value);
+        }
+    }
+
+    @Test
+    void matchesWhatEvaluateSaysForRandomTriggers() {
+        Random random = new Random(42);
+        TriggerIndex index = new TriggerIndex();
+        List<Trigger> all = new ArrayList<>();
+        Trigger.Operator[] ops = Trigger.Operator.values();
+        for (int i = 0; i < 500; i++) {
+            double threshold = random.nextInt(10) == 0 ? EDGES[random.nextInt(EDGES.length)] : random.nextInt(41) - 20;
+            Trigger t = trigger(random.nextBoolean() ? "temperature" : "Humidity", ops[random.nextInt(ops.length)], threshold);
+            all.add(t);
+            index.add(t);
+        }
+        for (int i = 0; i < 100; i++) {
+            Trigger gone = all.remove(random.nextInt(all.size()));
+            assertTrue(index.remove(gone));
+            assertFalse(index.remove(gone));
+        }
+        for (int i = 0; i < 1000; i++) {
+            double value = random.nextInt(10) == 0 ? EDGES[random.nextInt(EDGES.length)] : random.nextInt(41) - 20 + random.nextInt(3) * 0.5;
+            String metric = random.nextBoolean() ? "TEMPERATURE" : "humidity";
+            assertEquals(expected(all, metric, value), new HashSet<>(index.matching(metric, value)), metric + " " + value);
+        }
+    }
+
+    @Test
+    void negativeZeroIsZeroForGtAndLtButNotForEq() {
+        TriggerIndex index = new TriggerIndex();
+        Trigger gt = trigger("t", Trigger.Operator.GT, -0.0);
+        Trigger lt = trigger("t", Trigger.Operator.LT, 0.0);
+        Trigger eqPositive = trigger("t", Trigger.Operator.EQ, 0.0);
+        Trigger eqNegative = trigger("t", Trigger.Operator.EQ, -0.0);
+        for (Trigger t : List.of(gt, lt, eqPositive, eqNegative)) index.add(t);
+        assertEquals(List.of(eqPositive), index.matching("t", 0.0));
+        assertEquals(List.of(eqNegative), index.matching("t", -0.0));
+        assertEquals(List.of(gt), index.matching("t", Double.MIN_VALUE));
+    }
+
+    @Test
+    void nanOnlyMatchesAnEqNanTrigger() {
+        TriggerIndex index = new TriggerIndex();
+        Trigger eqNan = trigger("t", Trigger.Operator.EQ, Double.NaN);
+        index.add(trigger("t", Trigger.Operator.GT, Double.NEGATIVE_INFINITY));
+        index.add(trigger("t", Trigger.Operator.LT, Double.POSITIVE_INFINITY));
+        index.add(trigger("t", Trigger.Operator.GT, Double.NaN));
+        index.add(eqNan);
+        assertEquals(List.of(eqNan), index.matching("t", Double.NaN));
+        assertEquals(2, index.matching("t", 1.0).size());
+    }
+
+    @Test
+    void triggersWithTheSameThresholdKeepTheirOrderAndLeaveSeparately() {
+        TriggerIndex index = new TriggerIndex();
+        Trigger a = trigger("t", Trigger.Operator.GT, 10), b = trigger("t", Trigger.Operator.GT, 10), c = trigger("t", Trigger.Operator.GT, 10);
+        index.add(a);
+        index.add(b);
+        index.add(c);
+        assertEquals(List.of(a, b, c), index.matching("t", 11));
+        assertTrue(index.remove(b));
+        assertEquals(List.of(a, c), index.matching("t", 11));
+        assertTrue(index.remove(a));
+        assertTrue(index.remove(c));
+        assertTrue(index.matching("t", 11).isEmpty());
+        assertTrue(index.matching("other", 11).isEmpty());
+    }
+}